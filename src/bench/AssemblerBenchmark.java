@@ -0,0 +1,102 @@
+package bench;
+
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// Assembly of a generated program of a million instructions, a third of them
+// referencing labels (forward and backward): time and bytes allocated per run,
+// by BytecodeEmitter (in memory, one instruction per line), by SVMParser and
+// by Assembler (from a memory-mapped .asm file). Assembler is first checked
+// against SVMParser on that program, on the code generated for FOOL programs
+// (with and without superinstructions) and on hand-written corner cases.
+public class AssemblerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int instructions = Integer.getInteger("bench.instructions", 1000000);
+		List<String> lines = program(instructions);
+		String asm = String.join("\n", lines);
+		Path file = Files.createTempFile("bench", ".asm");
+		Files.writeString(file, asm);
+		check(asm);
+		String bankLoans = new FOOLCompiler().generateCode(CharStreams.fromString(CompileBenchmark.bankLoans(10)));
+		check(bankLoans);
+		check(String.join("\n", Peephole.fuse(Arrays.asList(bankLoans.split("\n")))));
+		check(" /* comment\n over lines */ start :push -2147483648 push 0\tpush start\r\n"
+			+ "lwo 3 lfw -1 lm 0 bleq end beq start b end end: /**/halt");
+		checkRejected("push 1 push 2 add ) print halt");
+		checkRejected("push 007");
+		checkRejected("b 5");
+		System.out.println("Assembler and SVMParser agree");
+
+		System.out.println(instructions+" instructions, "+asm.length()+" chars");
+		Harness.warmup = 3;
+		Harness.iterations = 10;
+		measure("BytecodeEmitter", () -> BytecodeEmitter.assemble(lines, false));
+		measure("Assembler (.asm file)", () -> Assembler.assemble(file));
+		Harness.warmup = 1;
+		Harness.iterations = 3;
+		measure("SVMParser", () -> new SVMParser(new CommonTokenStream(new SVMLexer(CharStreams.fromString(asm)))).assembly());
+		Files.delete(file);
+	}
+
+	// null if SVMLexer or SVMParser report errors
+	static int[] parse(String asm) {
+		SVMLexer lexer = new SVMLexer(CharStreams.fromString(asm));
+		SVMParser parser = new SVMParser(new CommonTokenStream(lexer));
+		parser.removeErrorListeners();
+		try {
+			parser.assembly();
+		} catch (RuntimeException e) {
+			return null;
+		}
+		return lexer.lexicalErrors+parser.getNumberOfSyntaxErrors() > 0 ? null : parser.code;
+	}
+
+	static void check(String asm) {
+		if (!Arrays.equals(parse(asm), Assembler.assemble(asm.getBytes(StandardCharsets.US_ASCII))))
+			throw new AssertionError("Different code for "+asm.substring(0, Math.min(asm.length(), 200)));
+	}
+
+	// SVMParser reports an error (or fails), so must Assembler
+	static void checkRejected(String asm) {
+		if (parse(asm) != null) throw new AssertionError("SVMParser accepted "+asm);
+		try {
+			Assembler.assemble(asm.getBytes(StandardCharsets.US_ASCII));
+		} catch (IllegalArgumentException e) {
+			return;
+		}
+		throw new AssertionError("Accepted "+asm);
+	}
+
+	// blocks of 6 instructions, each branching to the next block and jumping back to the previous one
+	static List<String> program(int instructions) {
+		List<String> lines = new ArrayList<>();
+		int blocks = instructions/6;
+		for (int b = 0; b < blocks; b++) {
+			lines.add("block"+b+":");
+			lines.add("push 1");
+			lines.add("push 2");
+			lines.add("beq block"+(b+1));
+			lines.add("push block"+Math.max(b-1, 0));
+			lines.add("pop");
+			lines.add("b block"+(b+1));
+		}
+		lines.add("block"+blocks+":");
+		lines.add("halt");
+		return lines;
+	}
+
+	static void measure(String name, Harness.Task task) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long before = threads.getCurrentThreadAllocatedBytes();
+		task.run();
+		long allocated = threads.getCurrentThreadAllocatedBytes()-before;
+		Harness.measure(name, task);
+		System.out.printf("%-50s %12.1f MB/op%n", "  allocated", allocated/1e6);
+	}
+}
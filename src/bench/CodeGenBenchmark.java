@@ -0,0 +1,32 @@
+package bench;
+
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import compiler.lib.*;
+
+// Code generation time on synthetic programs of growing size: with the
+// append-only Code buffer the time per declaration should stay roughly constant.
+public class CodeGenBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		for (int n : new int[] {1000, 10000, 100000}) {
+			FOOLCompiler compiler = new FOOLCompiler();
+			Node ast = compiler.frontEnd(CharStreams.fromString(declarations(n)));
+			double ms = Harness.measure(n+" declarations", () -> {
+				FOOLlib.reset();
+				compiler.codeGen(ast).toString();
+			});
+			System.out.printf("%-50s %12.3f ms%n", "  per 1000 declarations", ms*1000/n);
+		}
+	}
+
+	// n declarations, alternating variables and functions
+	static String declarations(int n) {
+		StringBuilder decs = new StringBuilder("let\n");
+		for (int i = 0; i < n; i++) {
+			if (i%2 == 0) decs.append("var x"+i+":int = "+i+"+1;\n");
+			else decs.append("fun f"+i+":int (a:int) if (a<=x"+(i-1)+") then {a*"+i+"} else {a};\n");
+		}
+		return decs.append("in print(f1(2));\n").toString();
+	}
+}
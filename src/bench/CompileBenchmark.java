@@ -0,0 +1,61 @@
+package bench;
+
+import java.io.*;
+import java.nio.file.*;
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// End-to-end compile latency (source text to int[] bytecode):
+// writing and re-parsing a .asm file versus the in-memory BytecodeEmitter.
+public class CompileBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		run("bankloan.fool", Files.readString(Path.of("bankloan.fool")));
+		run("synthetic x10", bankLoans(10));
+	}
+
+	static void run(String name, String source) throws Exception {
+		Path asm = Files.createTempFile("bench", ".asm");
+		System.out.println(name+" ("+source.length()+" chars)");
+		double before = Harness.measure("  .asm file + SVMParser", () -> {
+			String code = new FOOLCompiler().generateCode(CharStreams.fromString(source));
+			BufferedWriter out = new BufferedWriter(new FileWriter(asm.toFile()));
+			out.write(code);
+			out.close();
+			SVMParser parserASM = new SVMParser(new CommonTokenStream(new SVMLexer(CharStreams.fromFileName(asm.toString()))));
+			parserASM.assembly();
+		});
+		double after = Harness.measure("  BytecodeEmitter", () -> {
+			new FOOLCompiler().compile(CharStreams.fromString(source));
+		});
+		Harness.speedup(before, after);
+		Files.delete(asm);
+	}
+
+	// n renamed copies of the class hierarchy of bankloan.fool
+	static String bankLoans(int n) {
+		StringBuilder decs = new StringBuilder("let\n");
+		StringBuilder exp = new StringBuilder("0");
+		for (int i = 0; i < n; i++) {
+			decs.append(("class AccountX (money:int) { fun getMon:int () money; }\n"
+				+ "class TradingAccX extends AccountX (invested:int) { fun getInv:int () invested; }\n"
+				+ "class BankLoanX (loan: AccountX) {\n"
+				+ "  fun getLoan:AccountX () loan;\n"
+				+ "  fun openLoan:AccountX (m:TradingAccX) if ((m.getMon()+m.getInv())>=30000)\n"
+				+ "    then {new AccountX(loan.getMon())} else {null};\n"
+				+ "}\n"
+				+ "class MyBankLoanX extends BankLoanX (loan: TradingAccX) {\n"
+				+ "  fun openLoan:TradingAccX (l:AccountX) if (l.getMon()>=20000)\n"
+				+ "    then {new TradingAccX(loan.getMon(),loan.getInv())} else {null};\n"
+				+ "}\n").replace("X", "X"+i));
+		}
+		for (int i = 0; i < n; i++) {
+			decs.append(("var blX:BankLoanX = new MyBankLoanX(new TradingAccX(50000,40000));\n"
+				+ "var accX:TradingAccX = new TradingAccX(20000,5000);\n"
+				+ "var loanX:AccountX = blX.openLoan(accX);\n").replace("X", "X"+i));
+			exp.append("+(if (loanX==null) then {1} else {loanX.getMon()})".replace("X", "X"+i));
+		}
+		return decs.append("in print(").append(exp).append(");\n").toString();
+	}
+}
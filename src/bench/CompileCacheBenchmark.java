@@ -0,0 +1,35 @@
+package bench;
+
+import java.io.*;
+import java.nio.file.*;
+import org.antlr.v4.runtime.*;
+import compiler.*;
+
+// Compile latency of an unchanged source: the full pipeline versus a hit
+// of CompileCache, which reads the bytecode stored by a previous run.
+public class CompileCacheBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		run("bankloan.fool", Files.readString(Path.of("bankloan.fool")));
+		run("synthetic x10", CompileBenchmark.bankLoans(10));
+	}
+
+	static void run(String name, String source) throws Exception {
+		Path dir = Files.createTempDirectory("cache");
+		CompileCache cache = new CompileCache(dir);
+		cache.compile(new FOOLCompiler(), source); // miss: stores the entry
+		System.out.println(name+" ("+source.length()+" chars)");
+		double before = Harness.measure("  FOOLCompiler", () -> {
+			new FOOLCompiler().compile(CharStreams.fromString(source));
+		});
+		double after = Harness.measure("  CompileCache hit", () -> {
+			cache.compile(new FOOLCompiler(), source);
+		});
+		Harness.speedup(before, after);
+		System.out.println("  "+cache.stats());
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path file : files) Files.delete(file);
+		}
+		Files.delete(dir);
+	}
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import compiler.*;
+
+// Latency of compiling bankloan.fool: in a fresh JVM (class loading, ATN
+// deserialization and an empty DFA cache every time), through CompileClient
+// started in a fresh JVM, and as a request to the warm CompileServer.
+public class DaemonBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		Path socket = Files.createTempDirectory("daemon").resolve("fool.sock");
+		String source = Files.readString(Path.of("bankloan.fool"));
+		Process server = java("-Dsocket="+socket, "compiler.CompileServer").redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+		try {
+			while (!Files.exists(socket)) Thread.sleep(10);
+			Harness.warmup = 1;
+			Harness.iterations = Integer.getInteger("bench.iterations", 5);
+			double cold = Harness.measure("fresh JVM (BatchCompiler)", () -> run(java("compiler.BatchCompiler", "bankloan.fool")));
+			double client = Harness.measure("fresh JVM (CompileClient) to CompileServer", () ->
+				run(java("-Dsocket="+socket, "compiler.CompileClient", "bankloan.fool", "compile")));
+			Harness.speedup(cold, client);
+			Harness.warmup = 20;
+			Harness.iterations = 100;
+			double warm = Harness.measure("request to CompileServer", () ->
+				CompileClient.request(socket, "compile", "", true, true, 10, false, source, new PrintStream(OutputStream.nullOutputStream())));
+			Harness.speedup(cold, warm);
+			CompileClient.request(socket, "shutdown", "", true, true, 10, false, "", System.out);
+		} finally {
+			server.destroy();
+		}
+	}
+
+	// a JVM with the classpath of this one
+	static ProcessBuilder java(String... args) {
+		List<String> command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+			"-cp", System.getProperty("java.class.path")));
+		command.addAll(List.of(args));
+		return new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD).redirectError(ProcessBuilder.Redirect.INHERIT);
+	}
+
+	static void run(ProcessBuilder process) throws Exception {
+		int status = process.start().waitFor();
+		if (status != 0) throw new IllegalStateException("Exit status "+status);
+	}
+}
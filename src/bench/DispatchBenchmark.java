@@ -0,0 +1,79 @@
+package bench;
+
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// Method calls on objects whose class has no overriding subclass, which are
+// devirtualized (and become direct jumps in JitVM), and on a receiver of two
+// classes, where the address of the method comes from the inline cache of the
+// call site (compare with -Dsvm.inlinecache=false).
+public class DispatchBenchmark {
+
+	static final String MONOMORPHIC = "let\n"
+		+ "  class Counter (step:int) {\n"
+		+ "    fun next:int (n:int) n + step;\n"
+		+ "  }\n"
+		+ "  var c:Counter = new Counter(1);\n"
+		+ "  fun loop:int (i:int, acc:int) if (i <= 0) then {acc} else {loop(i-1, c.next(acc))};\n"
+		+ "in print(loop(200000, 0));\n";
+
+	static final String POLYMORPHIC = "let\n"
+		+ "  class Shape (size:int) {\n"
+		+ "    fun area:int () size * size;\n"
+		+ "  }\n"
+		+ "  class Half extends Shape () {\n"
+		+ "    fun area:int () size * size / 2;\n"
+		+ "  }\n"
+		+ "  var s:Shape = new Shape(3);\n"
+		+ "  var h:Shape = new Half(4);\n"
+		+ "  fun pick:Shape (i:int) if (i - (i/2)*2 == 0) then {s} else {h};\n"
+		+ "  fun loop:int (i:int, acc:int) let var o:Shape = pick(i); in\n"
+		+ "    if (i <= 0) then {acc} else {loop(i-1, acc + o.area())};\n"
+		+ "in print(loop(200000, 0));\n";
+
+	// a devirtualized call must still fail on a null receiver
+	static final String NULL_RECEIVER = "let class A (x:int) { fun five:int () 5; } var a:A = null; in print(a.five());\n";
+
+	public static void main(String[] args) throws Exception {
+		FOOLCompiler devirtualized = new FOOLCompiler();
+		devirtualized.inlineBudget = 0;
+		int[] nullCall = devirtualized.compile(CharStreams.fromString(NULL_RECEIVER));
+		for (VirtualMachine vm : new VirtualMachine[] {new ExecuteVM(nullCall), new JitVM(nullCall)})
+			try {
+				Harness.quietly(vm::cpu);
+				throw new AssertionError("method call on null succeeded on "+vm.getClass().getSimpleName());
+			} catch (RuntimeException e) {
+			}
+
+		System.out.println("monomorphic calls");
+		int[] table = compile(MONOMORPHIC, false);
+		int[] direct = compile(MONOMORPHIC, true);
+		count("  dispatch table", table);
+		count("  devirtualized", direct);
+		Harness.speedup(
+			Harness.measure("  ExecuteVM, dispatch table", () -> Harness.quietly(new ExecuteVM(table)::cpu)),
+			Harness.measure("  ExecuteVM, devirtualized", () -> Harness.quietly(new ExecuteVM(direct)::cpu)));
+		Harness.speedup(
+			Harness.measure("  JitVM, dispatch table", () -> Harness.quietly(new JitVM(table)::cpu)),
+			Harness.measure("  JitVM, devirtualized", () -> Harness.quietly(new JitVM(direct)::cpu)));
+
+		System.out.println("polymorphic calls (inline cache "+(ExecuteVM.INLINE_CACHE ? "on" : "off")+")");
+		int[] poly = compile(POLYMORPHIC, true);
+		count("  executed", poly);
+		Harness.measure("  ExecuteVM", () -> Harness.quietly(new ExecuteVM(poly)::cpu));
+		Harness.measure("  JitVM", () -> Harness.quietly(new JitVM(poly)::cpu));
+	}
+
+	static void count(String name, int[] code) throws Exception {
+		ThreadedVM counter = new ThreadedVM(code, true);
+		Harness.quietly(counter::cpu);
+		System.out.printf("%-50s %12d instructions%n", name, counter.executedInstructions());
+	}
+
+	static int[] compile(String source, boolean optimize) {
+		FOOLCompiler compiler = new FOOLCompiler();
+		compiler.optimize = optimize;
+		return compiler.compile(CharStreams.fromString(source));
+	}
+}
@@ -0,0 +1,70 @@
+package bench;
+
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// Executed instructions and run time of programs whose innermost functions use
+// variables and call functions of outer scopes, with non-local frames reached
+// by following the static chain versus through the display of the VM. Every
+// engine must print the same output with both conventions.
+public class DisplayBenchmark {
+
+	// walk, at nesting level 6, reads a variable of every outer level in a loop of 10^6 tail calls
+	static final String NESTED = "let\n"
+		+ "  var g:int = 1;\n"
+		+ "  fun l1:int (a:int)\n"
+		+ "    let fun l2:int (b:int)\n"
+		+ "      let fun l3:int (c:int)\n"
+		+ "        let fun l4:int (d:int)\n"
+		+ "          let fun l5:int (e:int)\n"
+		+ "            let fun walk:int (n:int, acc:int)\n"
+		+ "              if (n <= 0) then {acc} else {walk(n-1, acc + a + b + c + d + e + g)};\n"
+		+ "            in walk(e, 0);\n"
+		+ "          in l5(d*10);\n"
+		+ "        in l4(c*10);\n"
+		+ "      in l3(b*10);\n"
+		+ "    in l2(a*10);\n"
+		+ "in print(l1(100));\n";
+
+	// leaf, at nesting level 4, calls a function declared at level 1 (whose Access Link is
+	// the frame at level 1) and reads the parameter of level 1, in a tree of 2^17 calls
+	static final String CLOSURES = "let\n"
+		+ "  fun outer:int (k:int)\n"
+		+ "    let\n"
+		+ "      fun scale:int (x:int) if (x <= 0) then {k} else {x * k};\n"
+		+ "      fun mid:int (m:int)\n"
+		+ "        let fun tree:int (depth:int)\n"
+		+ "          let fun leaf:int (z:int) scale(z) + k - m;\n"
+		+ "          in if (depth <= 0) then {leaf(depth)} else {tree(depth-1) + tree(depth-1)};\n"
+		+ "        in tree(17);\n"
+		+ "    in mid(k+1);\n"
+		+ "in print(outer(3));\n";
+
+	static final String[] ENGINES = {"switch", "tos", "threaded", "tagged", "jit"};
+
+	public static void main(String[] args) throws Exception {
+		run("nested loop", NESTED);
+		run("nested calls", CLOSURES);
+	}
+
+	static void run(String name, String source) throws Exception {
+		FOOLCompiler compiler = new FOOLCompiler();
+		int[] chain = compiler.compile(CharStreams.fromString(source));
+		compiler.display = true;
+		int[] display = compiler.compile(CharStreams.fromString(source));
+		String expected = EpilogueBenchmark.output(new ExecuteVM(chain));
+		for (String engine : ENGINES)
+			for (int[] code : new int[][] {chain, display}) {
+				String output = EpilogueBenchmark.output(VirtualMachine.of(engine, code));
+				if (!output.equals(expected)) throw new AssertionError(engine+" prints "+output+" instead of "+expected);
+			}
+		System.out.println(name+" ("+EpilogueBenchmark.executed(chain)+" instructions with the static chain, "
+			+EpilogueBenchmark.executed(display)+" with the display)");
+		for (String engine : ENGINES) {
+			double before = Harness.measure("  "+engine+" static chain", () -> Harness.quietly(VirtualMachine.of(engine, chain)::cpu));
+			double after = Harness.measure("  "+engine+" display", () -> Harness.quietly(VirtualMachine.of(engine, display)::cpu));
+			Harness.speedup(before, after);
+		}
+	}
+}
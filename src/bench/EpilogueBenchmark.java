@@ -0,0 +1,99 @@
+package bench;
+
+import java.io.*;
+import java.util.*;
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// Executed instructions and run time of a call-heavy program with several
+// parameters and locals per function, with the epilogues as the code generator
+// used to emit them (one pop per word) versus popn and, with the Peephole
+// superinstructions, ret. Every engine must print the same output for each version,
+// and the locals of a method must be read from their own slots.
+public class EpilogueBenchmark {
+
+	// every function has parameters, so Peephole never fuses the old epilogues into ret
+	static final String CALLS = "let\n"
+		+ "  class Acc (total:int) {\n"
+		+ "    fun add:int (a:int, b:int, c:int) let var s:int = a+b; var t:int = s+c; in t-a+total;\n"
+		+ "  }\n"
+		+ "  fun f:int (n:int, a:int, b:int, c:int, acc:Acc)\n"
+		+ "    let var x:int = a+b; var y:int = b-c; var z:int = acc.add(x, y, n); in\n"
+		+ "    if (n <= 1) then {z} else {f(n-1, y, z, x, acc) - f(n-2, x, a, c, acc) + 1};\n"
+		+ "in print(f(22, 1, 2, 3, new Acc(5)));\n";
+
+	// v and w are below the return address, not on the Control Link and the parameters
+	static final String METHOD_LOCALS = "let\n"
+		+ "  class A (f:int) {\n"
+		+ "    fun m:int (a:int, b:int) let var v:int = 7; var w:int = 35; in v + w + a - b;\n"
+		+ "  }\n"
+		+ "  var o:A = new A(1);\n"
+		+ "in print(o.m(10, 3));\n";
+
+	static final String[] ENGINES = {"switch", "tos", "threaded", "tagged", "jit"};
+
+	public static void main(String[] args) throws Exception {
+		for (boolean display : new boolean[] {false, true}) {
+			FOOLCompiler compiler = new FOOLCompiler();
+			compiler.display = display;
+			int[] code = compiler.compile(CharStreams.fromString(METHOD_LOCALS));
+			for (String engine : ENGINES)
+				if (!output(VirtualMachine.of(engine, code)).equals("49"))
+					throw new AssertionError("method locals: "+engine+" prints "+output(VirtualMachine.of(engine, code))+" instead of 49");
+		}
+		String asm = new FOOLCompiler().generateCode(CharStreams.fromString(CALLS));
+		List<String> popn = Arrays.asList(asm.split("\n"));
+		List<String> pops = onePopPerWord(popn);
+		run("unfused", BytecodeEmitter.assemble(pops, false), BytecodeEmitter.assemble(popn, false));
+		run("fused", BytecodeEmitter.assemble(pops, true), BytecodeEmitter.assemble(popn, true));
+	}
+
+	static void run(String name, int[] before, int[] after) throws Exception {
+		String expected = output(new ExecuteVM(before));
+		for (String engine : ENGINES)
+			for (int[] code : List.of(before, after))
+				if (!output(VirtualMachine.of(engine, code)).equals(expected))
+					throw new AssertionError(engine+" prints "+output(VirtualMachine.of(engine, code))+" instead of "+expected);
+		for (int[] code : List.of(before, after))
+			if (!new JitVM(code).isCompiled()) throw new AssertionError(name+" code is not compiled by JitVM");
+		System.out.println(name+" ("+executed(before)+" instructions with one pop per word, "+executed(after)+" with "
+			+(name.equals("fused") ? "ret" : "popn")+")");
+		for (String engine : ENGINES) {
+			double t0 = Harness.measure("  "+engine+" one pop per word", () -> Harness.quietly(VirtualMachine.of(engine, before)::cpu));
+			double t1 = Harness.measure("  "+engine+(name.equals("fused") ? " ret" : " popn"), () -> Harness.quietly(VirtualMachine.of(engine, after)::cpu));
+			Harness.speedup(t0, t1);
+		}
+	}
+
+	// the code as emitted before popn: each "popn n" is n pops
+	static List<String> onePopPerWord(List<String> lines) {
+		List<String> out = new ArrayList<>();
+		for (String line : lines) {
+			if (!line.trim().startsWith("popn ")) {
+				out.add(line);
+				continue;
+			}
+			for (int i = Integer.parseInt(line.trim().substring(5)); i > 0; i--) out.add("pop");
+		}
+		return out;
+	}
+
+	static long executed(int[] code) throws Exception {
+		ThreadedVM vm = new ThreadedVM(code, true);
+		Harness.quietly(vm::cpu);
+		return vm.executedInstructions();
+	}
+
+	static String output(VirtualMachine vm) {
+		PrintStream out = System.out;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(printed));
+		try {
+			vm.cpu();
+		} finally {
+			System.setOut(out);
+		}
+		return printed.toString().trim();
+	}
+}
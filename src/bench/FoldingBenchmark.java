@@ -0,0 +1,58 @@
+package bench;
+
+import java.nio.file.*;
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// Code size, executed instructions and run time without and with constant
+// folding (ConstantFoldingASTVisitor), on programs with and without constants.
+public class FoldingBenchmark {
+
+	// unit conversions and identities written out, as in hand-written code
+	static final String CONSTANTS = "let\n"
+		+ "  var secondsPerDay:int = 60*60*24;\n"
+		+ "  fun norm:int (x:int) (x*1+0) * (60*60*24) / (24*3600) - (2-2);\n"
+		+ "  fun valid:bool (x:int) !!(x >= 0) && (1 <= 2 || false);\n"
+		+ "  fun loop:int (n:int, acc:int) if (n<=0) then {acc}\n"
+		+ "    else {loop(n-1, acc + norm(n) * (1+1-1) + (if (valid(n) && true) then {10/5} else {0}))};\n"
+		+ "in print(loop(2000, 0) + secondsPerDay);\n";
+
+	public static void main(String[] args) throws Exception {
+		run("constants", CONSTANTS);
+		run("arithmetic-heavy", VMBenchmark.ARITHMETIC);
+		run("bankloan.fool", Files.readString(Path.of("bankloan.fool")));
+	}
+
+	static void run(String name, String source) throws Exception {
+		System.out.println(name);
+		int[] plain = compile(source, false);
+		int[] folded = compile(source, true);
+		report("  code words", words(plain), words(folded));
+		report("  executed instructions", executed(plain), executed(folded));
+		double before = Harness.measure("  not folded", () -> Harness.quietly(new ExecuteVM(plain)::cpu));
+		double after = Harness.measure("  folded", () -> Harness.quietly(new ExecuteVM(folded)::cpu));
+		Harness.speedup(before, after);
+	}
+
+	static int[] compile(String source, boolean optimize) {
+		FOOLCompiler compiler = new FOOLCompiler();
+		compiler.optimize = optimize;
+		compiler.inlineBudget = 0; // folding only (see InliningBenchmark)
+		return compiler.compile(CharStreams.fromString(source));
+	}
+
+	static long words(int[] code) {
+		return code.length;
+	}
+
+	static long executed(int[] code) throws Exception {
+		ThreadedVM counter = new ThreadedVM(code, true);
+		Harness.quietly(counter::cpu);
+		return counter.executedInstructions();
+	}
+
+	static void report(String what, long before, long after) {
+		System.out.printf("%-50s %12d -> %d (%.1f%% less)%n", what, before, after, 100.0*(before-after)/before);
+	}
+}
@@ -0,0 +1,35 @@
+package bench;
+
+import java.nio.file.*;
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// Executed instructions and ExecuteVM run time with the plain instruction set
+// versus the Peephole superinstructions.
+public class FusionBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		run("arithmetic-heavy", VMBenchmark.ARITHMETIC);
+		run("call-heavy", VMBenchmark.CALLS);
+		run("bankloan.fool", Files.readString(Path.of("bankloan.fool")));
+	}
+
+	static void run(String name, String source) throws Exception {
+		FOOLCompiler compiler = new FOOLCompiler();
+		compiler.fuse = false;
+		int[] plain = compiler.compile(CharStreams.fromString(source));
+		compiler.fuse = true;
+		int[] fused = compiler.compile(CharStreams.fromString(source));
+		System.out.println(name+" ("+executed(plain)+" instructions plain, "+executed(fused)+" fused)");
+		double before = Harness.measure("  plain", () -> Harness.quietly(new ExecuteVM(plain)::cpu));
+		double after = Harness.measure("  fused", () -> Harness.quietly(new ExecuteVM(fused)::cpu));
+		Harness.speedup(before, after);
+	}
+
+	static long executed(int[] code) throws Exception {
+		ThreadedVM vm = new ThreadedVM(code, true);
+		Harness.quietly(vm::cpu);
+		return vm.executedInstructions();
+	}
+}
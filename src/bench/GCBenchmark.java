@@ -0,0 +1,33 @@
+package bench;
+
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// Allocation-heavy program run with a small heap, where the collector has to
+// reclaim the garbage lists, versus a heap large enough to never collect.
+public class GCBenchmark {
+
+	// builds and discards 2000 lists of 50 objects while keeping a list that grows
+	static final String CHURN = "let class L (v:int, n:L) { fun gv:int () v; fun gn:L () n; }"
+		+" fun mk:L (i:int) if (i<=0) then {null} else {new L(i, mk(i-1))};"
+		+" fun sum:int (l:L) if (l==null) then {0} else {l.gv()+sum(l.gn())};"
+		+" fun churn:int (i:int, keep:L) if (i<=0) then {sum(keep)} else {sum(mk(50)) + churn(i-1, new L(i, keep))};"
+		+" in print(churn(2000, mk(100)));";
+
+	public static void main(String[] args) throws Exception {
+		int[] code = new FOOLCompiler().compile(CharStreams.fromString(CHURN));
+		double before = Harness.measure("no collection (64M words)", () -> Harness.quietly(new ExecuteVM(code, false, 1<<16, 1<<26)::cpu));
+		double after = Harness.measure("collection (128K words)", () -> Harness.quietly(new ExecuteVM(code, false, 1<<12, 1<<17)::cpu));
+		Harness.speedup(before, after);
+
+		ExecuteVM vm = new ExecuteVM(code, false, 1<<12, 1<<17);
+		if (vm.gc() == null) return; // -Dsvm.gc=false
+		Harness.quietly(vm::cpu);
+		GarbageCollector gc = vm.gc();
+		System.out.printf("%-50s %12d%n", "collections", gc.collections);
+		System.out.printf("%-50s %12d%n", "reclaimed words", gc.reclaimedWords);
+		System.out.printf("%-50s %12.3f ms%n", "total pause", gc.totalPauseNanos/1e6);
+		System.out.printf("%-50s %12.3f ms%n", "max pause", gc.maxPauseNanos/1e6);
+	}
+}
@@ -0,0 +1,40 @@
+package bench;
+
+import java.io.*;
+
+// Minimal timing support shared by the benchmarks: runs a warm-up phase so
+// that the JIT has compiled the measured code, then reports the mean time.
+public class Harness {
+
+	public interface Task {
+		void run() throws Exception;
+	}
+
+	public static int warmup = Integer.getInteger("bench.warmup", 20);
+	public static int iterations = Integer.getInteger("bench.iterations", 50);
+
+	// returns the mean time of one run of task, in milliseconds
+	public static double measure(String name, Task task) throws Exception {
+		for (int i = 0; i < warmup; i++) task.run();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) task.run();
+		double ms = (System.nanoTime()-start)/1e6/iterations;
+		System.out.printf("%-50s %12.3f ms/op%n", name, ms);
+		return ms;
+	}
+
+	// runs task discarding what it prints (e.g. the output of a FOOL program)
+	public static void quietly(Task task) throws Exception {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			task.run();
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	public static void speedup(double before, double after) {
+		System.out.printf("%-50s %12.2fx%n", "speedup", before/after);
+	}
+}
@@ -0,0 +1,66 @@
+package bench;
+
+import java.nio.file.*;
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// Code size, executed instructions and run time without and with inlining
+// (InliningASTVisitor, budget from -Dbench.inline), on programs calling
+// accessors and small functions, and on recursive functions (whose recursive calls
+// must stay calls). Both versions must print the same output, and an inlined
+// method must still fail on a null object.
+public class InliningBenchmark {
+
+	static final String ACCESSORS = "let\n"
+		+ "  class Point (x:int, y:int) {\n"
+		+ "    fun getX:int () x;\n"
+		+ "    fun getY:int () y;\n"
+		+ "  }\n"
+		+ "  var p:Point = new Point(3, 4);\n"
+		+ "  fun sq:int (v:int) v * v;\n"
+		+ "  fun dist:int (q:Point) sq(q.getX()) + sq(q.getY());\n"
+		+ "  fun loop:int (n:int, acc:int) if (n <= 0) then {acc} else {loop(n-1, acc + dist(p) + p.getX())};\n"
+		+ "in print(loop(20000, 0));\n";
+
+	// small enough to be inlined, in the main program and in each other's bodies
+	static final String RECURSIVE = "let\n"
+		+ "  fun g:int (n:int) if (n == 0) then {0} else {g(n - 1)};\n"
+		+ "  fun fib:int (n:int) if (n <= 1) then {n} else {fib(n-1) + fib(n-2)};\n"
+		+ "in print(g(3) + fib(20));\n";
+
+	// the inlined body does not read the object
+	static final String NULL_RECEIVER = "let class A (x:int) { fun five:int () 5; } var a:A = null; in print(a.five());\n";
+
+	public static void main(String[] args) throws Exception {
+		int[] nullCall = compile(NULL_RECEIVER, Integer.getInteger("bench.inline", InliningASTVisitor.BUDGET));
+		try {
+			Harness.quietly(new ExecuteVM(nullCall)::cpu);
+			throw new AssertionError("inlined method call on null succeeded");
+		} catch (RuntimeException e) {
+		}
+		run("accessors", ACCESSORS);
+		run("recursive", RECURSIVE);
+		run("bankloan.fool", Files.readString(Path.of("bankloan.fool")));
+	}
+
+	static void run(String name, String source) throws Exception {
+		System.out.println(name);
+		int[] calls = compile(source, 0);
+		int[] inlined = compile(source, Integer.getInteger("bench.inline", InliningASTVisitor.BUDGET));
+		String expected = EpilogueBenchmark.output(new ExecuteVM(calls));
+		if (!EpilogueBenchmark.output(new ExecuteVM(inlined)).equals(expected))
+			throw new AssertionError("inlined code prints "+EpilogueBenchmark.output(new ExecuteVM(inlined))+" instead of "+expected);
+		FoldingBenchmark.report("  code words", FoldingBenchmark.words(calls), FoldingBenchmark.words(inlined));
+		FoldingBenchmark.report("  executed instructions", FoldingBenchmark.executed(calls), FoldingBenchmark.executed(inlined));
+		double before = Harness.measure("  calls", () -> Harness.quietly(new ExecuteVM(calls)::cpu));
+		double after = Harness.measure("  inlined", () -> Harness.quietly(new ExecuteVM(inlined)::cpu));
+		Harness.speedup(before, after);
+	}
+
+	static int[] compile(String source, int budget) {
+		FOOLCompiler compiler = new FOOLCompiler();
+		compiler.inlineBudget = budget;
+		return compiler.compile(CharStreams.fromString(source));
+	}
+}
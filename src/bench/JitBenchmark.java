@@ -0,0 +1,29 @@
+package bench;
+
+import java.nio.file.*;
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// ExecuteVM interpreting the program versus JitVM running it as JVM bytecode;
+// the program is compiled by the first JitVM, and reused by the following ones.
+// HotSpot compiles it in turn only after a few hundred runs, hence the longer warm-up.
+public class JitBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		Harness.warmup = Integer.getInteger("bench.warmup", 300);
+		run("arithmetic-heavy", VMBenchmark.ARITHMETIC);
+		run("call-heavy", VMBenchmark.CALLS);
+		run("bankloan.fool", Files.readString(Path.of("bankloan.fool")));
+		run("allocation-heavy", GCBenchmark.CHURN);
+	}
+
+	static void run(String name, String source) throws Exception {
+		int[] code = new FOOLCompiler().compile(CharStreams.fromString(source));
+		if (!new JitVM(code).isCompiled()) throw new AssertionError(name+" is not compiled by JitVM");
+		System.out.println(name);
+		double before = Harness.measure("  interpreter", () -> Harness.quietly(new ExecuteVM(code)::cpu));
+		double after = Harness.measure("  jit", () -> Harness.quietly(new JitVM(code)::cpu));
+		Harness.speedup(before, after);
+	}
+}
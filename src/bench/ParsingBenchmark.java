@@ -0,0 +1,33 @@
+package bench;
+
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// Parse time (lexing included) of a large generated FOOL program and of its
+// assembly, in LL mode only and in two stages (SLL first, see Parsing).
+public class ParsingBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		String fool = CompileBenchmark.bankLoans(Integer.getInteger("bench.copies", 100));
+		String asm = new FOOLCompiler().generateCode(CharStreams.fromString(fool));
+		System.out.println("FOOL ("+fool.length()+" chars)");
+		run(() -> {
+			FOOLParser parser = new FOOLParser(new CommonTokenStream(new FOOLLexer(CharStreams.fromString(fool))));
+			if (Parsing.parse(parser, FOOLParser::prog) == null || parser.getNumberOfSyntaxErrors() > 0) throw new IllegalStateException();
+		});
+		System.out.println("SVM ("+asm.length()+" chars)");
+		run(() -> {
+			SVMParser parser = new SVMParser(new CommonTokenStream(new SVMLexer(CharStreams.fromString(asm))));
+			if (Parsing.parse(parser, SVMParser::assembly) == null || parser.getNumberOfSyntaxErrors() > 0) throw new IllegalStateException();
+		});
+	}
+
+	static void run(Harness.Task parse) throws Exception {
+		Parsing.sll = false;
+		double before = Harness.measure("  LL", parse);
+		Parsing.sll = true;
+		double after = Harness.measure("  SLL, then LL on failure", parse);
+		Harness.speedup(before, after);
+	}
+}
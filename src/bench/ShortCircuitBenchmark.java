@@ -0,0 +1,34 @@
+package bench;
+
+import java.nio.file.*;
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// Executed instructions and run time of programs whose conditions combine
+// comparisons and method calls with && and ||.
+public class ShortCircuitBenchmark {
+
+	static final String GUARDS = "let\n"
+		+ "  class Range (lo:int, hi:int) {\n"
+		+ "    fun below:bool (x:int) x <= lo;\n"
+		+ "    fun above:bool (x:int) x >= hi;\n"
+		+ "  }\n"
+		+ "  var r:Range = new Range(-100, 100);\n"
+		+ "  fun count:int (n:int, acc:int) if (n <= -1000) then {acc}\n"
+		+ "    else {count(n-1, if ((r.below(n) || r.above(n)) && !(n == 500)) then {acc+1} else {acc})};\n"
+		+ "in print(count(1000, 0));\n";
+
+	public static void main(String[] args) throws Exception {
+		run("guarded method calls", GUARDS);
+		run("bankloan.fool", Files.readString(Path.of("bankloan.fool")));
+	}
+
+	static void run(String name, String source) throws Exception {
+		int[] code = new FOOLCompiler().compile(CharStreams.fromString(source));
+		ThreadedVM counter = new ThreadedVM(code, true);
+		Harness.quietly(counter::cpu);
+		System.out.println(name+" ("+counter.executedInstructions()+" instructions per run)");
+		Harness.measure("  ExecuteVM", () -> Harness.quietly(new ExecuteVM(code)::cpu));
+	}
+}
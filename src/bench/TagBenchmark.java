@@ -0,0 +1,26 @@
+package bench;
+
+import java.nio.file.*;
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// Cost of keeping reference bits (TaggedVM) over the untagged ExecuteVM, also
+// on the allocation-heavy program, where TaggedVM collects without pinning.
+public class TagBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		run("arithmetic-heavy", VMBenchmark.ARITHMETIC);
+		run("call-heavy", VMBenchmark.CALLS);
+		run("bankloan.fool", Files.readString(Path.of("bankloan.fool")));
+		run("allocation-heavy", GCBenchmark.CHURN);
+	}
+
+	static void run(String name, String source) throws Exception {
+		int[] code = new FOOLCompiler().compile(CharStreams.fromString(source));
+		System.out.println(name);
+		double before = Harness.measure("  untagged", () -> Harness.quietly(new ExecuteVM(code, false, 1<<12, 1<<17)::cpu));
+		double after = Harness.measure("  tagged", () -> Harness.quietly(new TaggedVM(code, 1<<12, 1<<17)::cpu));
+		Harness.speedup(before, after);
+	}
+}
@@ -0,0 +1,26 @@
+package bench;
+
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// Tail-recursive loop of 10^7 calls, run with a stack and a heap of 2K words
+// that are never grown: each call replaces the frame of the caller, so the
+// stack does not grow with the number of iterations.
+public class TailCallBenchmark {
+
+	static final String LOOP = "let\n"
+		+ "  fun loop:int (i:int, acc:int) let var next:int = acc+2; in\n"
+		+ "    if (i <= 0) then {acc} else {loop(i-1, next)};\n"
+		+ "in print(loop(10000000, 0));\n";
+
+	public static void main(String[] args) throws Exception {
+		Harness.warmup = Integer.getInteger("bench.warmup", 2);
+		Harness.iterations = Integer.getInteger("bench.iterations", 5);
+		int[] code = new FOOLCompiler().compile(CharStreams.fromString(LOOP));
+		new ExecuteVM(code, false, 1<<11, 1<<12).cpu(); // 20000000
+		Harness.measure("ExecuteVM (2K+2K words)", () -> Harness.quietly(new ExecuteVM(code, false, 1<<11, 1<<12)::cpu));
+		Harness.measure("TaggedVM (2K+2K words)", () -> Harness.quietly(new TaggedVM(code, 1<<11, 1<<12)::cpu));
+		Harness.measure("JitVM (2K+2K words)", () -> Harness.quietly(new JitVM(code, 1<<11, 1<<12)::cpu));
+	}
+}
@@ -0,0 +1,24 @@
+package bench;
+
+import java.nio.file.*;
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// ExecuteVM with the stack entirely in memory versus caching its top in a local variable.
+public class TosBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		run("arithmetic-heavy", VMBenchmark.ARITHMETIC);
+		run("call-heavy", VMBenchmark.CALLS);
+		run("bankloan.fool", Files.readString(Path.of("bankloan.fool")));
+	}
+
+	static void run(String name, String source) throws Exception {
+		int[] code = new FOOLCompiler().compile(CharStreams.fromString(source));
+		System.out.println(name);
+		double before = Harness.measure("  memory stack", () -> Harness.quietly(new ExecuteVM(code)::cpu));
+		double after = Harness.measure("  cached top of stack", () -> Harness.quietly(new ExecuteVM(code, true)::cpu));
+		Harness.speedup(before, after);
+	}
+}
@@ -0,0 +1,46 @@
+package bench;
+
+import java.lang.management.*;
+import org.antlr.v4.runtime.*;
+import compiler.*;
+
+// Front-end time (parsing, symbol table and type checking) and bytes allocated
+// per compilation of programs with a deep class hierarchy, where subtyping walks
+// the superclass chain and if-then-else computes lowest common ancestors.
+// The type nodes are interned (see Types), so the checks allocate no types.
+public class TypeCheckBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		for (int n : new int[] {20, 100}) {
+			String source = hierarchy(n);
+			FOOLCompiler compiler = new FOOLCompiler();
+			if (compiler.frontEnd(CharStreams.fromString(source)) == null)
+				throw new AssertionError(compiler.frontEndErrors()+" front-end errors");
+			Harness.measure(n+" classes", () -> compiler.frontEnd(CharStreams.fromString(source)));
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			long before = threads.getCurrentThreadAllocatedBytes();
+			compiler.frontEnd(CharStreams.fromString(source));
+			System.out.printf("%-50s %12d KB%n", "  allocated", (threads.getCurrentThreadAllocatedBytes()-before)/1024);
+		}
+	}
+
+	// a chain of n classes, each overriding the method of its superclass, a sibling of each
+	// class, and functions whose if-then-else returns a class or its sibling (so their type
+	// is the lowest common ancestor, the superclass of both)
+	static String hierarchy(int n) {
+		StringBuilder decs = new StringBuilder("let\n");
+		decs.append("class C0 (v:int) { fun up:C0 (c:C0) c; }\n");
+		for (int i = 1; i < n; i++) {
+			String fields = "1" + ",0".repeat(i);
+			decs.append("class C"+i+" extends C"+(i-1)+" (v"+i+":int) { fun up:C"+(i-1)+" (c:C0) new C"+i+"("+fields+"); }\n");
+			decs.append("class S"+i+" extends C"+(i-1)+" (s"+i+":int) {}\n");
+		}
+		StringBuilder exp = new StringBuilder("0");
+		for (int i = 1; i < n; i++) {
+			String fields = "1" + ",0".repeat(i);
+			decs.append("fun f"+i+":C0 (t:bool, x:C"+i+") if (t) then {x.up(x)} else {new S"+i+"("+fields+")};\n");
+			exp.append("+(if (f"+i+"(true, new C"+i+"("+fields+")) == null) then {1} else {0})");
+		}
+		return decs.append("in print(").append(exp).append(");\n").toString();
+	}
+}
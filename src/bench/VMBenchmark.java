@@ -0,0 +1,41 @@
+package bench;
+
+import org.antlr.v4.runtime.*;
+import compiler.*;
+import svm.*;
+
+// ExecuteVM (switch dispatch) versus ThreadedVM (pre-decoded handlers)
+// on arithmetic-heavy and call-heavy programs, in instructions per second.
+public class VMBenchmark {
+
+	static final String ARITHMETIC = "let\n"
+		+ "  fun poly:int (x:int) ((x*3+7)/2 - x*x/5 + (x-1)*(x+1)) * 2 - (x+x+x)/3 + (x*x*x)/(x+1);\n"
+		+ "  fun loop:int (n:int) if (n<=0) then {0} else {poly(n)+poly(n+1)+poly(n+2)+loop(n-1)};\n"
+		+ "in print(loop(500));\n";
+
+	static final String CALLS = "let\n"
+		+ "  fun fib:int (n:int) if (n<=1) then {n} else {fib(n-1)+fib(n-2)};\n"
+		+ "in print(fib(20));\n";
+
+	public static void main(String[] args) throws Exception {
+		run("arithmetic-heavy", ARITHMETIC);
+		run("call-heavy", CALLS);
+	}
+
+	static void run(String name, String source) throws Exception {
+		int[] code = new FOOLCompiler().compile(CharStreams.fromString(source));
+		ThreadedVM counter = new ThreadedVM(code, true);
+		Harness.quietly(counter::cpu);
+		long instructions = counter.executedInstructions();
+		System.out.println(name+" ("+instructions+" instructions per run)");
+		double before = Harness.measure("  ExecuteVM", () -> Harness.quietly(new ExecuteVM(code)::cpu));
+		report(instructions, before);
+		double after = Harness.measure("  ThreadedVM", () -> Harness.quietly(new ThreadedVM(code)::cpu));
+		report(instructions, after);
+		Harness.speedup(before, after);
+	}
+
+	static void report(long instructions, double ms) {
+		System.out.printf("%-50s %12.1f Minstr/s%n", "", instructions/ms/1000);
+	}
+}
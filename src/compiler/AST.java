@@ -33,6 +33,7 @@ public class AST {
 		final List<ParNode> parlist;
 		final List<DecNode> declist; 
 		final Node exp;
+		STentry entry; // of the function, the same object as in its calls (set by the symbol table)
 		FunNode(String i, TypeNode rt, List<ParNode> pl, List<DecNode> dl, Node e) {
 	    	id=i; 
 	    	retType=rt; 
@@ -255,6 +256,35 @@ public class AST {
 		public <S,E extends Exception> S accept(BaseASTVisitor<S,E> visitor) throws E {return visitor.visitNode(this);}
 	}
 	
+	// field of an object read without a method call: built by InliningASTVisitor
+	// for the fields used in the body of an inlined method
+	public static class ObjectFieldNode extends Node {
+		final IdNode object;
+		final STentry field;
+		ObjectFieldNode(IdNode object, STentry field) {
+			this.object = object;
+			this.field = field;
+		}
+
+		@Override
+		public <S,E extends Exception> S accept(BaseASTVisitor<S,E> visitor) throws E {return visitor.visitNode(this);}
+	}
+
+	// value of exp, evaluated after checking that object is not null: built by
+	// InliningASTVisitor around the body of an inlined method, so that the call
+	// still fails on a null object as the method call does
+	public static class NullCheckNode extends Node {
+		final IdNode object;
+		final Node exp;
+		NullCheckNode(IdNode object, Node exp) {
+			this.object = object;
+			this.exp = exp;
+		}
+
+		@Override
+		public <S,E extends Exception> S accept(BaseASTVisitor<S,E> visitor) throws E {return visitor.visitNode(this);}
+	}
+
 	public static class CallNode extends Node {
 		final String id;
 		final List<Node> arglist;
@@ -178,9 +178,7 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 	@Override
 	public Node visitIdType(IdTypeContext c) {
 		if (print) printVarAndProdName(c);
-		Node n = new RefTypeNode(c.ID().getText());
-		n.setLine(c.ID().getSymbol().getLine());
-		return n;
+		return Types.ref(c.ID().getText()); // interned, without a line
 	}
 
 	@Override
@@ -247,13 +245,13 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 	@Override
 	public Node visitIntType(IntTypeContext c) {
 		if (print) printVarAndProdName(c);
-		return new IntTypeNode();
+		return Types.INT;
 	}
 
 	@Override
 	public Node visitBoolType(BoolTypeContext c) {
 		if (print) printVarAndProdName(c);
-		return new BoolTypeNode();
+		return Types.BOOL;
 	}
 
 	@Override
@@ -0,0 +1,145 @@
+package compiler;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+import org.antlr.v4.runtime.*;
+import compiler.lib.*;
+import svm.*;
+
+// Compiles many FOOL files (given one by one, or as directories searched for
+// *.fool files) concurrently on a ForkJoinPool, each with its own FOOLCompiler
+// and CompilationContext. The diagnostics of each file are collected apart and
+// printed together, in the order of the arguments, followed by the throughput.
+public class BatchCompiler {
+
+	// output of the compilation running in the current thread (null outside a compilation)
+	private static final ThreadLocal<ByteArrayOutputStream> output = new ThreadLocal<>();
+
+	public boolean fuse = true;
+	public boolean optimize = true;
+	public int inlineBudget = InliningASTVisitor.BUDGET;
+	public boolean display = false;
+	public boolean dumpAsm = false; // also writes file.asm for every file without errors
+
+	public static class Result {
+		public final Path file;
+		public int chars;
+		public int frontEndErrors;
+		public int[] bytecode; // null if there were front-end errors
+		public String diagnostics;
+
+		Result(Path file) {
+			this.file = file;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.out.println("Usage: java compiler.BatchCompiler file.fool|directory...");
+			System.exit(2);
+		}
+		int threads = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors()); // -Dthreads=1 compiles serially
+		BatchCompiler batch = new BatchCompiler();
+		batch.fuse = !Boolean.getBoolean("noFuse");
+		batch.optimize = !Boolean.getBoolean("noOpt");
+		batch.inlineBudget = Integer.getInteger("inlineBudget", InliningASTVisitor.BUDGET);
+		batch.display = Boolean.getBoolean("display");
+		batch.dumpAsm = Boolean.getBoolean("dumpAsm");
+
+		List<Path> files = new ArrayList<>();
+		for (String arg : args) files.addAll(sources(Path.of(arg)));
+
+		long start = System.nanoTime();
+		long chars = 0;
+		int failed = 0;
+		for (Result r : batch.compileAll(files, threads)) {
+			System.out.print(r.diagnostics);
+			System.out.println(r.file+": "+(r.bytecode == null ? r.frontEndErrors+" front-end errors" : "ok"));
+			chars += r.chars;
+			if (r.bytecode == null) failed++;
+		}
+		double seconds = (System.nanoTime()-start)/1e9;
+		System.out.printf("Compiled %d files (%d with errors, %d chars) in %.3f s with %d threads: %.1f files/s, %.0f chars/s%n",
+			files.size(), failed, chars, seconds, threads, files.size()/seconds, chars/seconds);
+		if (failed > 0) System.exit(1);
+	}
+
+	// the *.fool files under path, in name order, or path itself if it is a file
+	static List<Path> sources(Path path) throws IOException {
+		if (!Files.isDirectory(path)) return List.of(path);
+		try (Stream<Path> files = Files.walk(path)) {
+			return files.filter(f -> f.toString().endsWith(".fool") && Files.isRegularFile(f)).sorted().collect(Collectors.toList());
+		}
+	}
+
+	// compiles files on threads threads; the results are in the same order as files
+	public List<Result> compileAll(List<Path> files, int threads) throws InterruptedException, ExecutionException {
+		PrintStream out = System.out, err = System.err;
+		PrintStream perThread = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				ByteArrayOutputStream buffer = output.get();
+				if (buffer == null) out.write(b);
+				else buffer.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				ByteArrayOutputStream buffer = output.get();
+				if (buffer == null) out.write(b, off, len);
+				else buffer.write(b, off, len);
+			}
+		}, true);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		System.setOut(perThread);
+		System.setErr(perThread);
+		try {
+			List<Future<Result>> results = new ArrayList<>();
+			for (Path file : files) results.add(pool.submit(() -> compile(file)));
+			List<Result> done = new ArrayList<>();
+			for (Future<Result> r : results) done.add(r.get());
+			return done;
+		} finally {
+			System.setOut(out);
+			System.setErr(err);
+			pool.shutdown();
+		}
+	}
+
+	// the output of the compilation goes to the diagnostics of the result
+	private Result compile(Path file) {
+		Result r = new Result(file);
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		output.set(buffer);
+		FOOLCompiler compiler = new FOOLCompiler();
+		compiler.fuse = fuse;
+		compiler.optimize = optimize;
+		compiler.inlineBudget = inlineBudget;
+		compiler.display = display;
+		try {
+			String source = Files.readString(file);
+			r.chars = source.length();
+			Node ast = compiler.frontEnd(CharStreams.fromString(source, file.toString()));
+			r.frontEndErrors = compiler.frontEndErrors();
+			if (ast != null) {
+				Code code = compiler.codeGen(compiler.optimize(ast));
+				if (dumpAsm) Files.writeString(Path.of(file+".asm"), code.toString());
+				r.bytecode = BytecodeEmitter.assemble(code, fuse);
+			}
+		} catch (IOException e) {
+			System.out.println("I/O error on "+file+": "+e.getMessage());
+			r.frontEndErrors = 1;
+		} catch (RuntimeException | StackOverflowError e) { // a crash of the compiler (e.g. on a deeply nested program) must not stop the other files
+			System.out.println("Compiler failure on "+file+": "+e);
+			r.frontEndErrors = Math.max(compiler.frontEndErrors(), 1);
+			r.bytecode = null;
+		} finally {
+			output.remove();
+		}
+		r.diagnostics = buffer.toString();
+		return r;
+	}
+}
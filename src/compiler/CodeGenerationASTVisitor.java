@@ -5,23 +5,59 @@ import compiler.lib.*;
 import compiler.exc.*;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 
 import static compiler.lib.FOOLlib.*;
-import static svm.ExecuteVM.MEMSIZE;
+import static svm.ExecuteVM.STACKBASE;
+import static svm.LineTable.marker;
 
-public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidException> {
+public class CodeGenerationASTVisitor extends BaseASTVisitor<Code, VoidException> {
 
   CodeGenerationASTVisitor() {}
   CodeGenerationASTVisitor(boolean debug) {super(false,debug);} //enables print for debugging
 
 	List<List<String>> dispatchTables = new ArrayList<>();
 
+	// classes are global: their fields are at nesting level 1, the bodies of their methods at 2
+	private static final int FIELD_NL = 1, METHOD_NL = 2;
+
+	boolean devirtualize = true; // call directly the methods that no subclass overrides
+	Map<String, List<String>> classTables = new HashMap<>(); // dispatch table of each class generated so far
+	Set<String> overridden = new HashSet<>(); // "C.k" if a subclass of C redefines the method at offset k
+	String currentClass; // class whose methods are being generated
+	boolean display = false; // non-local accesses through the display of the VM (ld, enter, leave) rather than the static chain
+	Map<String, Integer> labelLines = new HashMap<>(); // line in the FOOL source of the node each label was generated for
+	int line = -1; // line in the FOOL source of the code being generated, -1 if not known
+	String function = "main"; // function (or Class.method) whose code is being generated
+
+	// code for v, with line markers (see svm.LineTable) if v is on another line than the code around it
+	@Override
+	public Code visit(Visitable v) {
+		return v instanceof Node ? atLine((Node) v, () -> super.visit(v)) : super.visit(v);
+	}
+
+	// the code generated for n is preceded by the marker of its line and followed by the marker of the
+	// code around it, only if the lines differ: the expressions on a single line have no markers inside
+	private Code atLine(Node n, Supplier<Code> generate) {
+		int outer = line;
+		if (n.getLine() < 0 || n.getLine() == outer) return generate.get();
+		line = n.getLine();
+		Code code = generate.get();
+		line = outer;
+		return code == null ? null : nlJoin(marker(n.getLine(), function), code, marker(outer, function));
+	}
+
 	@Override
-	public String visitNode(ProgLetInNode n) {
+	public Code visitNode(ProgLetInNode n) {
 		if (print) printNode(n);
-		String classCode = null;
-		String declCode = null;
+		Code classCode = null;
+		Code declCode = null;
+		overridden = TypeRels.overriddenMethods(n.classlist);
 		for (Node cl : n.classlist) classCode=nlJoin(classCode,visit(cl));
 		for (Node dec : n.declist) declCode=nlJoin(declCode,visit(dec));
 		return nlJoin(
@@ -37,7 +73,7 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 	}
 
 	@Override
-	public String visitNode(ProgNode n) {
+	public Code visitNode(ProgNode n) {
 		if (print) printNode(n);
 		return nlJoin(
 			visit(n.exp),
@@ -46,9 +82,9 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 	}
 
 	@Override
-	public String visitNode(LessEqualNode n) throws VoidException {
-		String label1 = freshLabel();
-		String label2 = freshLabel();
+	public Code visitNode(LessEqualNode n) throws VoidException {
+		String label1 = freshLabel(n);
+		String label2 = freshLabel(n);
 		return nlJoin(
 				visit(n.left), // push the first element to check
 				visit(n.right), // push the second element
@@ -62,9 +98,9 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 	}
 
 	@Override
-	public String visitNode(GreaterEqualNode n) throws VoidException {
-		String label1 = freshLabel();
-		String label2 = freshLabel();
+	public Code visitNode(GreaterEqualNode n) throws VoidException {
+		String label1 = freshLabel(n);
+		String label2 = freshLabel(n);
 		return nlJoin(
 				visit(n.right), // push the first element to check
 				visit(n.left), // push the second element
@@ -78,36 +114,78 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 	}
 
 	@Override
-	public String visitNode(OrNode n) throws VoidException {
+	public Code visitNode(OrNode n) throws VoidException {
 		if (print) printNode(n);
-		String label1 = freshLabel();
-		String label2 = freshLabel();
-
-		return nlJoin(
-				visit(n.right), // push the operands
-				visit(n.left),
-				"bleq " + label1, // if right <= left it means that left operand leads
-				visit(n.right), // otherwise the right one
-				"b " + label2,
-				label1 + ":",
-				visit(n.left), // if left is true push true into stack, false otherwise
-				label2 + ":"
-		);
+		return materialize(n);
 	}
 
 	@Override
-	public String visitNode(AndNode n) throws VoidException {
+	public Code visitNode(AndNode n) throws VoidException {
 		if (print) printNode(n);
+		return materialize(n);
+	}
 
+	// pushes the value (0 or 1) of a condition evaluated by jumpIf
+	private Code materialize(Node cond) {
+		String falseLabel = freshLabel(cond);
+		String endLabel = freshLabel(cond);
 		return nlJoin(
-				visit(n.left),
-				visit(n.right),
-				"mult" // and as mult operation between the two operands (0 o 1)
+				jumpIf(cond, false, falseLabel),
+				"push 1",
+				"b " + endLabel,
+				falseLabel + ":",
+				"push 0",
+				endLabel + ":"
+		);
+	}
+
+	// Code for a condition used only to branch: jumps to label if cond evaluates
+	// to when, otherwise falls through. && and || are evaluated left to right and
+	// short-circuit, ! swaps the targets and comparisons branch directly,
+	// without pushing 0 or 1 and comparing it again.
+	private Code jumpIf(Node cond, boolean when, String label) {
+		if (cond instanceof BoolNode)
+			return ((BoolNode) cond).val == when ? nlJoin("b " + label) : null;
+		if (cond instanceof NotNode)
+			return jumpIf(((NotNode) cond).exp, !when, label);
+		if (cond instanceof AndNode || cond instanceof OrNode) {
+			boolean and = cond instanceof AndNode;
+			Node left = and ? ((AndNode) cond).left : ((OrNode) cond).left;
+			Node right = and ? ((AndNode) cond).right : ((OrNode) cond).right;
+			if (and != when) // the left operand alone can decide: false for &&, true for ||
+				return nlJoin(jumpIf(left, when, label), jumpIf(right, when, label));
+			String skip = freshLabel(cond);
+			return nlJoin(
+					jumpIf(left, !when, skip), // the right operand decides only if the left one does not
+					jumpIf(right, when, label),
+					skip + ":"
+			);
+		}
+		String branch;
+		Code operands;
+		if (cond instanceof EqualNode) {
+			branch = "beq ";
+			operands = nlJoin(visit(((EqualNode) cond).left), visit(((EqualNode) cond).right));
+		} else if (cond instanceof LessEqualNode) {
+			branch = "bleq ";
+			operands = nlJoin(visit(((LessEqualNode) cond).left), visit(((LessEqualNode) cond).right));
+		} else if (cond instanceof GreaterEqualNode) { // left >= right as right <= left
+			branch = "bleq ";
+			operands = nlJoin(visit(((GreaterEqualNode) cond).right), visit(((GreaterEqualNode) cond).left));
+		} else // any other boolean expression: compare its value with 1 (true) or 0 (false)
+			return nlJoin(visit(cond), "push " + (when ? 1 : 0), "beq " + label);
+		if (when) return nlJoin(operands, branch + label);
+		String skip = freshLabel(cond);
+		return nlJoin(
+				operands,
+				branch + skip,
+				"b " + label,
+				skip + ":"
 		);
 	}
 
 	@Override
-	public String visitNode(NotNode n) throws VoidException {
+	public Code visitNode(NotNode n) throws VoidException {
 		if (print) printNode(n);
 		return nlJoin(
 				// in order to negate a boolean (0 e 1) do the sub operation with 1
@@ -119,7 +197,7 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 	}
 
 	@Override
-	public String visitNode(DivNode n) throws VoidException {
+	public Code visitNode(DivNode n) throws VoidException {
 		if (print) printNode(n);
 		return nlJoin(
 				visit(n.left),
@@ -129,7 +207,7 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 	}
 
 	@Override
-	public String visitNode(MinusNode n) throws VoidException {
+	public Code visitNode(MinusNode n) throws VoidException {
 		if (print) printNode(n);
 		return nlJoin(
 				visit(n.left),
@@ -139,10 +217,10 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 	}
 
 	@Override
-	public String visitNode(EqualNode n) {
+	public Code visitNode(EqualNode n) {
 		if (print) printNode(n);
-		String l1 = freshLabel();
-		String l2 = freshLabel();
+		String l1 = freshLabel(n);
+		String l2 = freshLabel(n);
 		return nlJoin(
 				visit(n.left),
 				visit(n.right),
@@ -156,7 +234,7 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 	}
 
 	@Override
-	public String visitNode(TimesNode n) {
+	public Code visitNode(TimesNode n) {
 		if (print) printNode(n);
 		return nlJoin(
 				visit(n.left),
@@ -166,7 +244,7 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 	}
 
 	@Override
-	public String visitNode(PlusNode n) {
+	public Code visitNode(PlusNode n) {
 		if (print) printNode(n);
 		return nlJoin(
 				visit(n.left),
@@ -176,69 +254,81 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 	}
 
 	@Override
-	public String visitNode(FunNode n) {
+	public Code visitNode(FunNode n) {
 		if (print) printNode(n,n.id);
-		String declCode = null, popDecl = null, popParl = null;
-		for (Node dec : n.declist) {
-			declCode = nlJoin(declCode,visit(dec));
-			popDecl = nlJoin(popDecl,"pop");
-		}
-		for (int i=0;i<n.parlist.size();i++) popParl = nlJoin(popParl,"pop");
-		String funl = freshFunLabel();
+		String outerFunction = function;
+		int outerLine = line;
+		function = n.id;
+		line = n.getLine();
+		Code declCode = null;
+		for (Node dec : n.declist) declCode = nlJoin(declCode,visit(dec));
+		int level = n.entry.nl+1; // of the body
+		boolean enters = display && n.declist.stream().anyMatch(d -> d instanceof FunNode f && hasNestedFunction(f));
+		String funl = freshFunLabel(n);
 		putCode(
 			nlJoin(
 				funl+":",
+				marker(n.getLine(), function), // the code of each function starts a range of the line table
 				"cfp", // set $fp to $sp value
 				"lra", // load $ra value (in order to return to caller)
+				enters ? "enter "+level : null, // the frame is reached through the display by functions nested twice
 				declCode, // generate code for local declarations (they use the new $fp!!!)
-				visit(n.exp), // generate code for function body expression
+				body(n.exp, n.parlist.size(), n.declist.size(), enters ? "leave "+level : null), // generate code for function body expression
+				enters ? "leave "+level : null,
 				"stm", // set $tm to popped value (function result)
-				popDecl, // remove local declarations from stack
+				pop(n.declist.size()), // remove local declarations from stack
 				"sra", // set $ra to popped value
-				"pop", // remove Access Link from stack
-				popParl, // remove parameters from stack
+				pop(n.parlist.size()+1), // remove Access Link and parameters from stack
 				"sfp", // set $fp to popped value (Control Link)
 				"ltm", // load $tm value (function result)
 				"lra", // load $ra value
 				"js"  // jump to to popped address
 			)
 		);
-		return "push "+funl;
+		function = outerFunction;
+		line = outerLine;
+		return nlJoin("push "+funl);
 	}
 
 	@Override
-	public String visitNode(MethodNode n) throws VoidException {
+	public Code visitNode(MethodNode n) throws VoidException {
 		if (print) printNode(n,n.id);
-		String declCode = null, popDecl = null, popParl = null;
-		for (Node dec : n.declist) {
-			declCode = nlJoin(declCode,visit(dec));
-			popDecl = nlJoin(popDecl,"pop");
-		}
-		for (int i=0;i<n.parlist.size();i++) popParl = nlJoin(popParl,"pop");
+		String outerFunction = function;
+		int outerLine = line;
+		function = currentClass+"."+n.id;
+		line = n.getLine();
+		Code declCode = null;
+		for (Node dec : n.declist) declCode = nlJoin(declCode,visit(dec));
+		// the object is reached through the frame of the method by its nested functions
+		boolean enters = display && n.declist.stream().anyMatch(d -> d instanceof FunNode);
 		putCode(
 				nlJoin(
 						"/* method " + n.id + " declaration */",
 						n.label+":",
+						marker(n.getLine(), function),
 						"cfp", // set $fp to $sp value
 						"lra", // load $ra value
+						enters ? "enter "+METHOD_NL : null,
 						declCode, // generate code for local declarations (they use the new $fp!!!)
-						visit(n.exp), // generate code for function body expression
+						body(n.exp, n.parlist.size(), n.declist.size(), enters ? "leave "+METHOD_NL : null), // generate code for function body expression
+						enters ? "leave "+METHOD_NL : null,
 						"stm", // set $tm to popped value (function result)
-						popDecl, // remove local declarations from stack
+						pop(n.declist.size()), // remove local declarations from stack
 						"sra", // set $ra to popped value
-						"pop", // remove Access Link from stack
-						popParl, // remove parameters from stack
+						pop(n.parlist.size()+1), // remove Access Link and parameters from stack
 						"sfp", // set $fp to popped value (Control Link)
 						"ltm", // load $tm value (function result)
 						"lra", // load $ra value
 						"js"  // jump to popped address
 				)
 		);
+		function = outerFunction;
+		line = outerLine;
 		return null;
 	}
 
 	@Override
-	public String visitNode(ClassNode n) throws VoidException {
+	public Code visitNode(ClassNode n) throws VoidException {
 		if (print) printNode(n,n.id);
 		ArrayList<String> dispatchTable = new ArrayList<>();
 		if(!n.superId.isEmpty()) {
@@ -246,7 +336,7 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 			dispatchTable.addAll(parentTable);
 		}
 		for(MethodNode method : n.methodlist) {
-			String freshLabel = freshFunLabel();
+			String freshLabel = freshFunLabel(method);
 			method.label = freshLabel;
 			int methodOffset = method.offset;
 			if(methodOffset >= dispatchTable.size()) {
@@ -256,10 +346,14 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 				// if override substitutes the already present method
 				dispatchTable.set(methodOffset, freshLabel);
 			}
-			visit(method);
 		}
+		// the table is complete before the methods, which can call each other directly
+		classTables.put(n.id, dispatchTable);
+		currentClass = n.id;
+		for(MethodNode method : n.methodlist) visit(method);
+		currentClass = null;
 
-		String labels = "";
+		Code labels = null;
 		for (String methodLabel : dispatchTable) {
 			labels = nlJoin(labels,
 					"/* method " + methodLabel + "*/",
@@ -273,97 +367,110 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 			);
 		}
 
+		// object layout read by alloc and by the garbage collector, just below the
+		// dispatch table: a reference flag for every field (last field first), then the number of fields
+		Code layout = null;
+		for (int i = n.type.allFields.size()-1; i >= 0; i--)
+			layout = nlJoin(layout,
+					"push " + (n.type.allFields.get(i) instanceof RefTypeNode ? 1 : 0),
+					"lhp", "sw", "lhp", "push 1", "add", "shp"
+			);
+		layout = nlJoin(layout,
+				"push " + n.type.allFields.size(),
+				"lhp", "sw", "lhp", "push 1", "add", "shp"
+		);
+
 		dispatchTables.add(dispatchTable);
 
 		return nlJoin(
 				"/* class " + n.id + " declaration */",
+				layout,
 				"lhp", // push the content of hp register to the top of the stack
 				labels
 		);
 	}
 
 	@Override
-	public String visitNode(ClassCallNode n) throws VoidException {
+	public Code visitNode(ClassCallNode n) throws VoidException {
 		if (print) printNode(n,n.id);
-
-		String argCode = null, getAR = null;
-		for (int i=n.arglist.size()-1;i>=0;i--) argCode=nlJoin(argCode,visit(n.arglist.get(i)));
-		for (int i = 0;i<n.nl-n.entry.nl;i++) getAR=nlJoin(getAR,"lw");
 		return nlJoin(
 				"/* method " + n.idMethod + " recall */",
 				"lfp", // load Control Link (pointer to frame of function "id" caller)
+				callTarget(n),
+				"js"  // jump to popped address (saving address of subsequent instruction in $ra)
+		);
+	}
+
+	// pushes arguments and Access Link (the object pointer) of the call, then the address of the method
+	private Code callTarget(ClassCallNode n) {
+		Code argCode = null;
+		for (int i=n.arglist.size()-1;i>=0;i--) argCode=nlJoin(argCode,visit(n.arglist.get(i)));
+		return nlJoin(
 				argCode, // generate code for argument expressions in reversed order
-				"lfp", getAR, // retrieve address of frame containing "id" declaration
-				// by following the static chain (of Access Links)
+				frame(n.nl, n.entry.nl), // retrieve address of frame containing "id" declaration
 				"push " + n.entry.offset, // address of object pointer
 				"add",
 				"lw",
 
+				methodAddress(((RefTypeNode) n.entry.type).classId, n.methodEntry.offset, false)
+		);
+	}
+
+	// with the object pointer on top of the stack, pushes the address of its method at
+	// offset: the label itself if no subclass of classId overrides the method, otherwise
+	// the address found in the dispatch table (through the inline cache of lm);
+	// unless the object is known to be non-null, the direct call still reads the
+	// dispatch pointer, so a call on null fails as with the dispatch table
+	private Code methodAddress(String classId, int offset, boolean nonNull) {
+		List<String> table = classTables.get(classId);
+		if (devirtualize && table != null && !overridden.contains(classId+"."+offset))
+			return nlJoin(
+					nonNull ? null : nlJoin(
+							"stm", // duplicate the object pointer
+							"ltm",
+							"ltm",
+							"lw", // load the dispatch pointer (fails on null)
+							"pop"
+					),
+					"push "+table.get(offset)
+			);
+		return nlJoin(
 				"stm", // set $tm to popped value (with the aim of duplicating top of stack)
-				"ltm", // load Access Link (pointer to frame of function "id" declaration)
+				"ltm", // load Access Link (object pointer)
 				"ltm", // duplicate top of stack
-				"lw",
-
-				"push "+n.methodEntry.offset,
-				"add", // compute address of "id" declaration
-				"lw", // load address of "id" function
-				"js"  // jump to popped address (saving address of subsequent instruction in $ra)
+				"lm "+offset // load the address of the method from the dispatch table of the object
 		);
 	}
 
 	@Override
-	public String visitNode(NewNode n) throws VoidException {
+	public Code visitNode(NewNode n) throws VoidException {
 		if (print) printNode(n,n.id);
 
-		String argCode = null;
+		Code argCode = null;
 		for (int i = 0; i < n.arglist.size(); i++)
 			argCode=nlJoin(argCode,visit(n.arglist.get(i))
 					,"/* campo classe */"
 			);
 
-		String pushOnHeapCode = null;
-		for (int i=0;i<n.arglist.size();i++) {
-			pushOnHeapCode = nlJoin(pushOnHeapCode,
-					"lhp", // push hp into stack
-					"sw", // pop two values: hp and label and memorize label into the address contained in hp register
-
-					"lhp", // push hp
-					"push 1", // push 1 to increment hp
-					"add", // pop two values and do the sum: hp + 1
-					"shp" // store the final result into hp (hp = hp + 1)
-			);
-		}
-
 		return nlJoin(
-				argCode,
-				pushOnHeapCode, // push all the arg
-				// uments on the heap code memory
-				"push " + MEMSIZE,
+				argCode, // fields are left on the stack for alloc
+				"push " + STACKBASE, // address of the global frame
 				"push " + n.entry.offset,
 				"add", // calculate the dispatch pointer
 				"lw",
-				"/* dispatch pointer write */",
-				"lhp",
-				"sw", // write the dispatch pointer into the address contained in hp register
-				"/* object pointer load */",
-				"lhp", // load the object pointer to be returned
-				"/* hp increment */",
-				"lhp", // push hp
-				"push 1", // push 1 to increment hp
-				"add", // pop two values and do the sum: hp + 1
-				"shp" // store the final result into hp (hp = hp + 1)
+				"alloc" // move fields and dispatch pointer to the heap, and push the object pointer
 		);
 
 	}
 
 	@Override
-	public String visitNode(VarNode n) {
+	public Code visitNode(VarNode n) {
 		if (print) printNode(n,n.id);
 		return visit(n.exp);
 	}
 
 	@Override
-	public String visitNode(PrintNode n) {
+	public Code visitNode(PrintNode n) {
 		if (print) printNode(n);
 		return nlJoin(
 			visit(n.exp),
@@ -372,27 +479,123 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 	}
 
 	@Override
-	public String visitNode(IfNode n) {
+	public Code visitNode(IfNode n) {
 		if (print) printNode(n);
+		return ifCode(n.cond, visit(n.th), visit(n.el));
+	}
 
-	 	String label1 = freshLabel();
-	 	String label2 = freshLabel();
+	private Code ifCode(Node cond, Code th, Code el) {
+	 	String label1 = freshLabel(cond);
+	 	String label2 = freshLabel(cond);
 		return nlJoin(
-			visit(n.cond),
-			"push 1",
-			"beq "+label1, // check the condition is true
-			visit(n.el), // visit else branch
+			jumpIf(cond, true, label1), // check the condition is true
+			el, // visit else branch
 			"b "+label2, // jump to then branch
 			label1+":",
-			visit(n.th), // visit then branch
+			th, // visit then branch
 			label2+":"
 		);
 	}
 
+	// code for the body exp of a function or method with pars parameters and decs local declarations,
+	// and leave its leave instruction (if any): a call in tail position (also inside the branches of
+	// an if) reuses the frame of the function
+	private Code body(Node exp, int pars, int decs, String leave) {
+		if (exp instanceof IfNode) {
+			IfNode n = (IfNode) exp;
+			if (print) printNode(n);
+			return atLine(n, () -> ifCode(n.cond, body(n.th, pars, decs, leave), body(n.el, pars, decs, leave)));
+		}
+		if (exp instanceof CallNode) {
+			CallNode n = (CallNode) exp;
+			// a nested function has the frame being replaced as Access Link
+			if (n.nl-n.entry.nl == 0) return visit(n);
+			if (print) printNode(n,n.id);
+			return atLine(n, () -> tailCall(callTarget(n), n.arglist.size(), pars, decs, leave));
+		}
+		if (exp instanceof ClassCallNode) {
+			ClassCallNode n = (ClassCallNode) exp;
+			if (print) printNode(n,n.id);
+			return atLine(n, () -> tailCall(callTarget(n), n.arglist.size(), pars, decs, leave));
+		}
+		return visit(exp);
+	}
+
+	// pushes the address of the frame at nesting level level (for the fields of a class, the object)
+	// from code at nesting level nl: by following the static chain (of Access Links) or, with display,
+	// through the display of the VM when more than one Access Link would be followed
+	private Code frame(int nl, int level) {
+		if (!display || nl-level < 2) {
+			Code getAR = nlJoin("lfp");
+			for (int i = 0;i<nl-level;i++) getAR=nlJoin(getAR,"lw");
+			return getAR;
+		}
+		if (level == 0) return nlJoin("push "+STACKBASE); // the global frame
+		if (level == FIELD_NL && currentClass != null) return nlJoin("ld "+METHOD_NL, "lw"); // Access Link of the method
+		return nlJoin("ld "+level);
+	}
+
+	// whether f declares functions, whose own nested functions reach the frame of f through the display
+	private static boolean hasNestedFunction(FunNode f) {
+		return f.declist.stream().anyMatch(d -> d instanceof FunNode);
+	}
+
+	// fresh labels for the code of n, recording its line (see ProfilingVM)
+	private String freshLabel(Node n) {
+		String label = FOOLlib.freshLabel();
+		labelLines.put(label, n.getLine());
+		return label;
+	}
+
+	private String freshFunLabel(Node n) {
+		String label = FOOLlib.freshFunLabel();
+		labelLines.put(label, n.getLine());
+		return label;
+	}
+
+	// removes n words from the stack in a single instruction (null if n is 0)
+	private static String pop(int n) {
+		return n == 0 ? null : n == 1 ? "pop" : "popn "+n;
+	}
+
+	// target pushes the args arguments and the Access Link of the callee, then its address:
+	// they replace parameters and Access Link of the current frame, which keeps its Control Link,
+	// and the callee returns directly to the caller of the current function
+	private Code tailCall(Code target, int args, int pars, int decs, String leave) {
+		Code moveArgs = null;
+		// from the last argument: each word is moved to a higher address, above the words still to move
+		for (int k = 0; k <= args; k++)
+			moveArgs = nlJoin(moveArgs,
+				"lfp", "push "+(-2-decs-k), "add", "lw", // k-th word pushed by target
+				"lfp", "push "+(pars-k), "add", "sw"
+			);
+		return nlJoin(
+			"/* tail call */",
+			target,
+			leave, // the callee finds the display as the caller of the current function left it
+			"stm", // set $tm to popped value (address of the callee)
+			"lfp", "push -1", "add", "lw",
+			"sra", // set $ra to the return address of the current function (the arguments can overwrite it)
+			moveArgs,
+			pop(pars+decs+2), // remove the words above the new Access Link
+			"ltm",
+			"jp"  // jump to popped address (leaving $ra unchanged)
+		);
+	}
+
 	@Override
-	public String visitNode(CallNode n) {
+	public Code visitNode(CallNode n) {
 		if (print) printNode(n,n.id);
-		String argCode = null, getAR = null;
+		return nlJoin(
+				"lfp", // load Control Link (pointer to frame of function "id" caller)
+				callTarget(n),
+				"js"  // jump to popped address (saving address of subsequent instruction in $ra)
+		);
+	}
+
+	// pushes arguments and Access Link of the call, then the address of function "id"
+	private Code callTarget(CallNode n) {
+		Code argCode = null;
 		TypeNode callType = n.entry.type;
 
 		// push the arguments
@@ -400,14 +603,11 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 			argCode=nlJoin(argCode,visit(n.arglist.get(i)));
 
 		// AR ascent
-		for (int i = 0;i<n.nl-n.entry.nl;i++)
-			getAR=nlJoin(getAR,"lw");
+		Code getAR = frame(n.nl, n.entry.nl);
 
 		if(!(callType instanceof MethodTypeNode)){
 			return nlJoin(
-					"lfp", // load Control Link (pointer to frame of function "id" caller)
 					argCode, // generate code for argument expressions in reversed order
-					"lfp", // load CL again to start the ascent of AL (addresses of previous ARs)
 					getAR, // retrieve address of frame containing "id" declaration
 					// by following the static chain (of Access Links)
 					"stm", // set $tm to popped value (with the aim of duplicating top of stack)
@@ -416,37 +616,44 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 
 					"push " + n.entry.offset,
 					"add", // compute address of "id" declaration
-					"lw", // load address of "id" function to execute it
-					"js"  // jump to popped address (saving address of subsequent instruction in $ra)
+					"lw" // load address of "id" function to execute it
 			);
 		} else {
 			return nlJoin(
-					"lfp", // load Control Link (pointer to frame of function "id" caller)
 					argCode, // generate code for argument expressions in reversed order
-					"lfp", // load CL again to start the ascent of AL (addresses of previous ARs)
 					getAR, // retrieve directly the Access Link of the declaration from the current AR (the same class): is the object pointer
-					"stm", // set $tm to popped value (with the aim of duplicating top of stack)
-					"ltm", // load Access Link (pointer to frame of function "id" declaration)
-					"ltm", // duplicated top of stack (first load to tm register and then load twice on top of the stack)
-
-					"lw", // load the dispatch pointer (address of the class id)
-
-					"push " + n.entry.offset,
-					"add", // compute address of "id" declaration
-					"lw", // load address of "id" function to execute it
-					"js"  // jump to popped address (saving address of subsequent instruction in $ra)
+					methodAddress(currentClass, n.entry.offset, true) // the object is an instance of the current class or of a subclass
 			);
 		}
 	}
 
 	@Override
-	public String visitNode(IdNode n) {
+	public Code visitNode(ObjectFieldNode n) {
+		if (print) printNode(n,n.object.id);
+		return nlJoin(
+			visit(n.object), // load the object pointer
+			"push "+n.field.offset,
+			"add", // compute address of the field
+			"lw" // load value of the field
+		);
+	}
+
+	@Override
+	public Code visitNode(NullCheckNode n) {
+		if (print) printNode(n,n.object.id);
+		return nlJoin(
+			visit(n.object), // load the object pointer
+			"lw", // load its dispatch pointer (fails on null)
+			"pop",
+			visit(n.exp)
+		);
+	}
+
+	@Override
+	public Code visitNode(IdNode n) {
 		if (print) printNode(n,n.id);
-		String getAR = null;
-		for (int i = 0;i<n.nl-n.entry.nl;i++) getAR=nlJoin(getAR,"lw");
 		return nlJoin(
-			"lfp", getAR, // retrieve address of frame containing "id" declaration
-			              // by following the static chain (of Access Links)
+			frame(n.nl, n.entry.nl), // retrieve address of frame containing "id" declaration
 			"push "+n.entry.offset,
 			"add", // compute address of "id" declaration
 			"lw" // load value of "id" variable
@@ -454,20 +661,20 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 	}
 
 	@Override
-	public String visitNode(BoolNode n) {
+	public Code visitNode(BoolNode n) {
 		if (print) printNode(n,n.val.toString());
-		return "push "+(n.val?1:0);
+		return nlJoin("push "+(n.val?1:0));
 	}
 
 	@Override
-	public String visitNode(IntNode n) {
+	public Code visitNode(IntNode n) {
 		if (print) printNode(n,n.val.toString());
-		return "push "+n.val;
+		return nlJoin("push "+n.val);
 	}
 
 	@Override
-	public String visitNode(EmptyNode n) throws VoidException {
+	public Code visitNode(EmptyNode n) throws VoidException {
 		if (print) printNode(n);
-		return "push -1";
+		return nlJoin("push -1");
 	}
 }
\ No newline at end of file
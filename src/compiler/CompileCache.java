@@ -0,0 +1,257 @@
+package compiler;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+import java.util.*;
+import org.antlr.v4.runtime.*;
+import svm.*;
+
+// On-disk cache of compilations: an entry holds the bytecode with its LineTable (or the
+// error counts) and the diagnostics printed while compiling, under a hash of the source, of the options of
+// the FOOLCompiler and of all the class files of the compiler and svm packages (found
+// where CompileCache was loaded from, a directory or a jar), so that any change to them
+// gives a new key. Entries are written atomically, so concurrent builds can share a
+// directory; when the entries exceed maxBytes the least recently used are deleted.
+// Hits, misses and evictions are counted per instance and added to the totals kept
+// in the stats file of the directory, under a file lock, so that the totals cover
+// every process (e.g. every Test of a CI run) that used the directory.
+public class CompileCache {
+
+	public static final long MAXBYTES = Long.getLong("cache.maxbytes", 64L << 20); // -Dcache.maxbytes=...
+
+	// the packages (with their subpackages) whose classes determine the bytecode generated for a source
+	private static final String[] COMPILER_PACKAGES = {"compiler/", "svm/"};
+	private static final int MAGIC = 0x464f4f4c; // "FOOL"
+	private static final String STATS = "stats"; // hits, misses and evictions of all the instances, as three longs
+	private static byte[] compilerVersion;
+
+	private final Path dir;
+	private final long maxBytes;
+
+	public int hits, misses, evictions; // of this instance
+
+	public CompileCache(Path dir) throws IOException {
+		this(dir, MAXBYTES);
+	}
+
+	public CompileCache(Path dir, long maxBytes) throws IOException {
+		this.dir = Files.createDirectories(dir);
+		this.maxBytes = maxBytes;
+	}
+
+	// Compiles source with compiler, as compiler.compile does (error counts and lines
+	// included), or reads the result of a previous compilation with the same options.
+	// The diagnostics are printed in both cases.
+	public int[] compile(FOOLCompiler compiler, String source) throws IOException {
+		Path entry = dir.resolve(key(compiler, source)+".bin");
+		Entry cached = read(entry);
+		if (cached != null) {
+			hits++;
+			update(1, 0, 0);
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+			compiler.lexicalErrors = cached.errors[0];
+			compiler.syntaxErrors = cached.errors[1];
+			compiler.symbolTableErrors = cached.errors[2];
+			compiler.typeErrors = cached.errors[3];
+			compiler.lines = cached.lines;
+			System.out.print(cached.out);
+			System.err.print(cached.err);
+			return cached.code;
+		}
+		misses++;
+		Entry compiled = new Entry();
+		PrintStream out = System.out, err = System.err;
+		ByteArrayOutputStream outBytes = new ByteArrayOutputStream(), errBytes = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(outBytes, true, StandardCharsets.UTF_8));
+		System.setErr(new PrintStream(errBytes, true, StandardCharsets.UTF_8));
+		try {
+			compiled.code = compiler.compile(CharStreams.fromString(source));
+		} finally {
+			System.setOut(out);
+			System.setErr(err);
+		}
+		compiled.out = outBytes.toString(StandardCharsets.UTF_8);
+		compiled.err = errBytes.toString(StandardCharsets.UTF_8);
+		compiled.errors = new int[] {compiler.lexicalErrors, compiler.syntaxErrors, compiler.symbolTableErrors, compiler.typeErrors};
+		compiled.lines = compiler.lines;
+		System.out.print(compiled.out);
+		System.err.print(compiled.err);
+		write(entry, compiled);
+		update(0, 1, evict());
+		return compiled.code;
+	}
+
+	public String stats() throws IOException {
+		long[] totals = update(0, 0, 0);
+		return "Compilation cache: "+hits+" hits, "+misses+" misses, "+evictions+" evictions"
+			+" (in total "+totals[0]+" hits, "+totals[1]+" misses, "+totals[2]+" evictions).";
+	}
+
+	// adds the counts to the totals in the stats file and returns the new totals; the file lock
+	// is held by a whole process, so the threads of this process also take the class monitor
+	private long[] update(int hits, int misses, int evictions) throws IOException {
+		synchronized (CompileCache.class) {
+			try (FileChannel channel = FileChannel.open(dir.resolve(STATS), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+				 FileLock lock = channel.lock()) {
+				ByteBuffer buffer = ByteBuffer.allocate(3*Long.BYTES);
+				while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0);
+				long[] totals = new long[3];
+				if (!buffer.hasRemaining()) { // else the file was just created
+					buffer.flip();
+					for (int i = 0; i < 3; i++) totals[i] = buffer.getLong();
+				}
+				if (hits+misses+evictions == 0) return totals;
+				totals[0] += hits;
+				totals[1] += misses;
+				totals[2] += evictions;
+				buffer.clear();
+				for (long total : totals) buffer.putLong(total);
+				buffer.flip();
+				while (buffer.hasRemaining()) channel.write(buffer, buffer.position());
+				return totals;
+			}
+		}
+	}
+
+	private static class Entry {
+		int[] errors;
+		String out, err;
+		int[] code; // null if there were front-end errors
+		LineTable lines; // of the code
+	}
+
+	private static String key(FOOLCompiler compiler, String source) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		digest.update(compilerVersion());
+		digest.update((compiler.fuse+" "+compiler.optimize+" "+compiler.inlineBudget+" "+compiler.display+"\n").getBytes(StandardCharsets.UTF_8));
+		digest.update(source.getBytes(StandardCharsets.UTF_8));
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	// hash of the names and contents of the class files in COMPILER_PACKAGES, sorted by name
+	private static synchronized byte[] compilerVersion() throws IOException {
+		if (compilerVersion == null) {
+			MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+			Path root;
+			try {
+				root = Path.of(CompileCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			} catch (java.net.URISyntaxException | NullPointerException e) {
+				throw new IOException("Class files of the compiler not found", e);
+			}
+			SortedMap<String, byte[]> classes = new TreeMap<>();
+			if (Files.isDirectory(root)) {
+				for (String prefix : COMPILER_PACKAGES) {
+					Path dir = root.resolve(prefix);
+					if (!Files.isDirectory(dir)) continue;
+					try (var files = Files.walk(dir)) {
+						for (Path file : (Iterable<Path>) files::iterator)
+							if (file.toString().endsWith(".class"))
+								classes.put(root.relativize(file).toString().replace(File.separatorChar, '/'), Files.readAllBytes(file));
+					}
+				}
+			} else try (java.util.jar.JarFile jar = new java.util.jar.JarFile(root.toFile())) {
+				for (java.util.jar.JarEntry entry : Collections.list(jar.entries()))
+					if (entry.getName().endsWith(".class") && Arrays.stream(COMPILER_PACKAGES).anyMatch(entry.getName()::startsWith))
+						try (InputStream in = jar.getInputStream(entry)) {
+							classes.put(entry.getName(), in.readAllBytes());
+						}
+			}
+			if (classes.isEmpty()) throw new IOException("Class files of the compiler not found in "+root);
+			for (Map.Entry<String, byte[]> c : classes.entrySet()) {
+				digest.update(c.getKey().getBytes(StandardCharsets.UTF_8));
+				digest.update(c.getValue());
+			}
+			compilerVersion = digest.digest();
+		}
+		return compilerVersion;
+	}
+
+	// null if the entry is missing or unreadable (e.g. truncated by a crash)
+	private static Entry read(Path file) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC) return null;
+			Entry entry = new Entry();
+			entry.errors = new int[4];
+			for (int i = 0; i < 4; i++) entry.errors[i] = in.readInt();
+			entry.out = new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+			entry.err = new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+			int length = in.readInt();
+			if (length >= 0) {
+				// the code buffer without its unused end
+				entry.code = new int[length];
+				int used = in.readInt();
+				for (int i = 0; i < used; i++) entry.code[i] = in.readInt();
+				entry.lines = LineTable.read(in);
+			}
+			return entry;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private void write(Path file, Entry entry) throws IOException {
+		Path temp = Files.createTempFile(dir, "entry", ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			for (int errors : entry.errors) out.writeInt(errors);
+			for (String text : new String[] {entry.out, entry.err}) {
+				byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			if (entry.code == null) out.writeInt(-1);
+			else {
+				int used = entry.code.length;
+				while (used > 0 && entry.code[used-1] == 0) used--;
+				out.writeInt(entry.code.length);
+				out.writeInt(used);
+				for (int i = 0; i < used; i++) out.writeInt(entry.code[i]);
+				entry.lines.write(out);
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// deletes the least recently used entries until they take at most maxBytes; returns how many it deleted
+	private int evict() throws IOException {
+		List<Path> entries = new ArrayList<>();
+		Map<Path, Long> sizes = new HashMap<>(), used = new HashMap<>();
+		long total = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.bin")) {
+			for (Path file : files) {
+				try {
+					sizes.put(file, Files.size(file));
+					used.put(file, Files.getLastModifiedTime(file).toMillis());
+				} catch (NoSuchFileException e) {
+					continue; // deleted by another process
+				}
+				entries.add(file);
+				total += sizes.get(file);
+			}
+		}
+		entries.sort(Comparator.comparing(used::get));
+		int evicted = 0;
+		for (Path file : entries) {
+			if (total <= maxBytes) break;
+			if (Files.deleteIfExists(file)) evicted++;
+			total -= sizes.get(file);
+		}
+		evictions += evicted;
+		return evicted;
+	}
+}
@@ -0,0 +1,69 @@
+package compiler;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// Thin client of CompileServer: sends a FOOL file with the options of Test
+// (-Dvm, -DnoFuse, -DnoOpt, -DinlineBudget, -Ddisplay), prints the response and exits
+// with its status. It loads neither ANTLR nor the compiler: CompileServer
+// only lends it compile-time constants.
+//
+// java compiler.CompileClient file.fool [run|compile] | shutdown
+public class CompileClient {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: java compiler.CompileClient file.fool [run|compile] | shutdown");
+			System.exit(2);
+		}
+		String command = args[0].equals(CompileServer.SHUTDOWN) ? CompileServer.SHUTDOWN : args.length > 1 ? args[1] : CompileServer.RUN;
+		String source = command.equals(CompileServer.SHUTDOWN) ? "" : Files.readString(Path.of(args[0]));
+		String engine = System.getProperty("vm", "");
+		boolean fuse = !Boolean.getBoolean("noFuse");
+		boolean optimize = !Boolean.getBoolean("noOpt");
+		int inlineBudget = Integer.getInteger("inlineBudget", 10); // InliningASTVisitor.BUDGET, not loaded here
+		boolean display = Boolean.getBoolean("display");
+		int status = request(socket(), command, engine, fuse, optimize, inlineBudget, display, source, System.out);
+		System.exit(status);
+	}
+
+	// sends a request to the server listening on socket, printing its output to out; returns its status
+	public static int request(Path socket, String command, String engine, boolean fuse, boolean optimize, int inlineBudget,
+			boolean display, String source, PrintStream out) throws IOException {
+		try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+			DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			request.writeUTF(command);
+			if (!command.equals(CompileServer.SHUTDOWN)) {
+				request.writeUTF(engine);
+				request.writeBoolean(fuse);
+				request.writeBoolean(optimize);
+				request.writeInt(inlineBudget);
+				request.writeBoolean(display);
+				writeString(request, source);
+			}
+			request.flush();
+			DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			int status = response.readInt();
+			out.print(readString(response));
+			return status;
+		}
+	}
+
+	// -Dsocket=path, shared by server and client
+	static Path socket() {
+		return Path.of(System.getProperty("socket", System.getProperty("java.io.tmpdir")+"/fool-"+System.getProperty("user.name")+".sock"));
+	}
+
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,192 @@
+package compiler;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.antlr.v4.runtime.*;
+import svm.*;
+
+// Long-lived compiler listening on a Unix domain socket (local only), so that
+// class loading, the deserialization of the ATN of FOOLParser and its DFA cache
+// (shared by all parser instances) are paid once, and not by every compilation.
+// Requests are served one at a time; CompileClient is the client. The server
+// does not start if another one answers on the socket.
+// A program to run is compiled by the server and executed by a child JVM
+// ("java compiler.CompileServer run", with the -D and -X options of the server),
+// which is killed after -Dserver.timeout milliseconds: a program that does not
+// terminate (e.g. a tail call looping in constant memory) cannot block the server.
+//
+// Request:  command ("compile" or "run"), engine (see VirtualMachine.of, "" for
+//           ExecuteVM), fuse, optimize, inlineBudget, display, source
+// Response: status (OK, ERRORS or FAILURE), output of the compilation and of the run
+public class CompileServer {
+
+	static final String COMPILE = "compile", RUN = "run", SHUTDOWN = "shutdown";
+	static final int OK = 0, ERRORS = 1, FAILURE = 2;
+
+	static final long TIMEOUT = Long.getLong("server.timeout", 10000); // of a run, in milliseconds
+	static final int MAXOUTPUT = 1 << 20; // bytes of the output of a run sent back, the rest is dropped
+
+	private int requests;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals(RUN)) runChild();
+		else new CompileServer().serve(CompileClient.socket());
+	}
+
+	public void serve(Path path) throws IOException {
+		if (Files.exists(path)) {
+			try (SocketChannel running = SocketChannel.open(UnixDomainSocketAddress.of(path))) {
+				throw new IOException("A server is already listening on "+path);
+			} catch (ConnectException e) {
+				Files.delete(path); // left by a server that did not stop cleanly
+			}
+		}
+		warmUp();
+		try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			server.bind(UnixDomainSocketAddress.of(path));
+			System.out.println("Serving on "+path);
+			boolean running = true;
+			while (running) {
+				try (SocketChannel client = server.accept()) {
+					running = serve(new DataInputStream(new BufferedInputStream(Channels.newInputStream(client))),
+						new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client))));
+				} catch (IOException e) {
+					System.out.println("Request failed: "+e.getMessage()); // e.g. the client has gone
+				}
+			}
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	// compiles (without running) a program using every construct once, so that the
+	// first request finds the compiler classes loaded and the DFA cache filled
+	private void warmUp() {
+		String source = "let\n"
+			+ "  class A (a:int) { fun get:int () a; }\n"
+			+ "  class B extends A (b:bool) { fun get:int () if (b || !(a<=0) && a>=1) then {a*2-1} else {a/2}; }\n"
+			+ "  fun f:int (x:int, o:A) let var y:int = x+1; in o.get()+y;\n"
+			+ "  var o:A = new B(1, true);\n"
+			+ "  var n:A = null;\n"
+			+ "in print(if (n == null) then {f(1, o)} else {0});\n";
+		long start = System.nanoTime();
+		new FOOLCompiler().compile(CharStreams.fromString(source));
+		System.out.printf("Warmed up in %.1f ms%n", (System.nanoTime()-start)/1e6);
+	}
+
+	// returns false after a shutdown request
+	private boolean serve(DataInputStream in, DataOutputStream out) throws IOException {
+		String command = in.readUTF();
+		if (command.equals(SHUTDOWN)) {
+			out.writeInt(OK);
+			CompileClient.writeString(out, "");
+			out.flush();
+			return false;
+		}
+		String engine = in.readUTF();
+		FOOLCompiler compiler = new FOOLCompiler();
+		compiler.fuse = in.readBoolean();
+		compiler.optimize = in.readBoolean();
+		compiler.inlineBudget = in.readInt();
+		compiler.display = in.readBoolean();
+		String source = CompileClient.readString(in);
+
+		long start = System.nanoTime();
+		int status;
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		PrintStream stdout = System.out, stderr = System.err;
+		PrintStream captured = new PrintStream(output, true, StandardCharsets.UTF_8);
+		System.setOut(captured);
+		System.setErr(captured);
+		try {
+			int[] bytecode = compiler.compile(CharStreams.fromString(source));
+			if (bytecode == null) {
+				System.out.println("You had a total of "+compiler.frontEndErrors()+" front-end errors.");
+				status = ERRORS;
+			} else {
+				status = command.equals(RUN) ? run(engine, bytecode, compiler.lines) : OK;
+			}
+		} catch (IOException | RuntimeException | StackOverflowError e) { // of the compiler or of the child JVM
+			System.out.println("Failure: "+e);
+			status = FAILURE;
+		} finally {
+			System.setOut(stdout);
+			System.setErr(stderr);
+		}
+		out.writeInt(status);
+		CompileClient.writeString(out, output.toString(StandardCharsets.UTF_8));
+		out.flush();
+		System.out.printf("#%d %s (%d chars): status %d, %.3f ms%n", ++requests, command, source.length(), status, (System.nanoTime()-start)/1e6);
+		return true;
+	}
+
+	// runs the program in a child JVM, printing its output; returns OK, or FAILURE if the
+	// program failed or did not end within TIMEOUT
+	private static int run(String engine, int[] code, LineTable lines) throws IOException {
+		List<String> command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+			"-cp", System.getProperty("java.class.path")));
+		for (String option : ManagementFactory.getRuntimeMXBean().getInputArguments())
+			if (option.startsWith("-D") || option.startsWith("-X")) command.add(option);
+		command.addAll(List.of(CompileServer.class.getName(), RUN));
+		Process child = new ProcessBuilder(command).redirectErrorStream(true).start();
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		Thread reader = new Thread(() -> { // drains the output, so that the child never blocks on it
+			byte[] buffer = new byte[8192];
+			try (InputStream in = child.getInputStream()) {
+				for (int n; (n = in.read(buffer)) > 0; )
+					printed.write(buffer, 0, Math.max(0, Math.min(n, MAXOUTPUT-printed.size())));
+			} catch (IOException e) {
+			}
+		});
+		reader.start();
+		boolean ended;
+		try {
+			try (DataOutputStream program = new DataOutputStream(new BufferedOutputStream(child.getOutputStream()))) {
+				program.writeUTF(engine);
+				program.writeInt(code.length);
+				for (int word : code) program.writeInt(word);
+				lines.write(program);
+			} catch (IOException e) {
+				// the child has ended already, its output tells why
+			}
+			ended = child.waitFor(TIMEOUT, TimeUnit.MILLISECONDS);
+			if (!ended) child.destroyForcibly().waitFor();
+			reader.join();
+		} catch (InterruptedException e) {
+			child.destroyForcibly();
+			throw new InterruptedIOException("Run interrupted");
+		}
+		System.out.print(printed.toString(StandardCharsets.UTF_8));
+		if (printed.size() == MAXOUTPUT) System.out.println("[output truncated at "+MAXOUTPUT+" bytes]");
+		if (!ended) {
+			System.out.println("Failure: timed out after "+TIMEOUT+" ms");
+			return FAILURE;
+		}
+		return child.exitValue() == 0 ? OK : FAILURE;
+	}
+
+	// the child JVM of run: reads engine, code and LineTable from the standard input and
+	// runs the program, exiting with status 1 if it fails
+	private static void runChild() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+		String engine = in.readUTF();
+		int[] code = new int[in.readInt()];
+		for (int i = 0; i < code.length; i++) code[i] = in.readInt();
+		LineTable lines = LineTable.read(in);
+		int status = 0;
+		try {
+			VirtualMachine.of(engine.isEmpty() ? null : engine, code, lines).cpu();
+		} catch (RuntimeException | StackOverflowError e) {
+			System.out.println("Failure: "+e);
+			status = 1;
+		}
+		System.out.flush();
+		System.exit(status);
+	}
+}
@@ -0,0 +1,312 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.exc.*;
+import compiler.lib.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//visitNode(n) ritorna il nodo che sostituisce n nell'AST arricchito e type checked:
+//- le operazioni con operandi letterali (IntNode/BoolNode) sono calcolate a compile time
+//- le identita' x*1, x/1, x+0, x-0, !!b, true&&b, false||b sono semplificate
+//- un IfNode con condizione letterale e' sostituito dal ramo scelto
+//I nodi che contengono sotto-espressioni sono ricostruiti (i campi dell'AST sono final),
+//copiando le informazioni aggiunte dalle visite precedenti (entry, nl, offset, ...).
+//Non e' eliminato nulla che possa avere effetti (print, chiamate, divisione per zero).
+public class ConstantFoldingASTVisitor extends BaseASTVisitor<Node, VoidException> {
+
+	ConstantFoldingASTVisitor() {}
+	ConstantFoldingASTVisitor(boolean debug) { super(false,debug); } // enables print for debugging
+
+	// literal value as the VM represents it (true is 1, false is 0), null if n is not a literal
+	private static Integer value(Node n) {
+		if (n instanceof IntNode) return ((IntNode) n).val;
+		if (n instanceof BoolNode) return ((BoolNode) n).val ? 1 : 0;
+		return null;
+	}
+
+	private static boolean isInt(Node n, int v) {
+		return n instanceof IntNode && ((IntNode) n).val == v;
+	}
+
+	private static boolean isBool(Node n, boolean b) {
+		return n instanceof BoolNode && ((BoolNode) n).val == b;
+	}
+
+	// evaluating n has no effects, so it can be dropped (an ObjectFieldNode is inside the
+	// NullCheckNode of its object, so it cannot fail)
+	static boolean pure(Node n) {
+		return n instanceof IntNode || n instanceof BoolNode || n instanceof IdNode || n instanceof EmptyNode
+			|| n instanceof ObjectFieldNode;
+	}
+
+	static <T extends Node> T at(T node, Node n) {
+		node.setLine(n.getLine());
+		return node;
+	}
+
+	private IntNode intNode(int v, Node n) {
+		return at(new IntNode(v), n);
+	}
+
+	private BoolNode boolNode(boolean b, Node n) {
+		return at(new BoolNode(b), n);
+	}
+
+	private List<Node> visitList(List<? extends Node> nodes) {
+		List<Node> result = new ArrayList<>();
+		for (Node node : nodes) result.add(visit(node));
+		return result;
+	}
+
+	private List<DecNode> visitDecs(List<DecNode> decs) {
+		List<DecNode> result = new ArrayList<>();
+		for (DecNode dec : decs) result.add((DecNode) visit(dec));
+		return result;
+	}
+
+	@Override
+	public Node visitNode(ProgLetInNode n) {
+		if (print) printNode(n);
+		List<ClassNode> classes = new ArrayList<>();
+		for (ClassNode cl : n.classlist) classes.add((ClassNode) visit(cl));
+		return at(new ProgLetInNode(visitDecs(n.declist), classes, visit(n.exp)), n);
+	}
+
+	@Override
+	public Node visitNode(ProgNode n) {
+		if (print) printNode(n);
+		return at(new ProgNode(visit(n.exp)), n);
+	}
+
+	@Override
+	public Node visitNode(FunNode n) {
+		if (print) printNode(n,n.id);
+		FunNode f = at(new FunNode(n.id, n.retType, n.parlist, visitDecs(n.declist), visit(n.exp)), n);
+		f.entry = n.entry;
+		return f;
+	}
+
+	@Override
+	public Node visitNode(MethodNode n) {
+		if (print) printNode(n,n.id);
+		MethodNode m = at(new MethodNode(n.id, n.retType, n.parlist, visitDecs(n.declist), visit(n.exp)), n);
+		m.label = n.label;
+		m.offset = n.offset;
+		m.setType(n.getType());
+		return m;
+	}
+
+	@Override
+	public Node visitNode(ClassNode n) {
+		if (print) printNode(n,n.id);
+		List<MethodNode> methods = new ArrayList<>();
+		for (MethodNode method : n.methodlist) methods.add((MethodNode) visit(method));
+		ClassNode c = at(new ClassNode(n.id, n.fieldlist, methods), n);
+		c.superId = n.superId;
+		c.type = n.type;
+		c.superEntry = n.superEntry;
+		return c;
+	}
+
+	@Override
+	public Node visitNode(ParNode n) {
+		if (print) printNode(n,n.id);
+		return n;
+	}
+
+	@Override
+	public Node visitNode(FieldNode n) {
+		if (print) printNode(n,n.id);
+		return n;
+	}
+
+	@Override
+	public Node visitNode(VarNode n) {
+		if (print) printNode(n,n.id);
+		return at(new VarNode(n.id, n.getType(), visit(n.exp)), n);
+	}
+
+	@Override
+	public Node visitNode(PrintNode n) {
+		if (print) printNode(n);
+		return at(new PrintNode(visit(n.exp)), n);
+	}
+
+	@Override
+	public Node visitNode(IfNode n) {
+		if (print) printNode(n);
+		Node cond = visit(n.cond);
+		Node th = visit(n.th);
+		Node el = visit(n.el);
+		if (cond instanceof BoolNode) return ((BoolNode) cond).val ? th : el;
+		return at(new IfNode(cond, th, el), n);
+	}
+
+	@Override
+	public Node visitNode(EqualNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (value(left) != null && value(right) != null) return boolNode(value(left).equals(value(right)), n);
+		return at(new EqualNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(LessEqualNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (value(left) != null && value(right) != null) return boolNode(value(left) <= value(right), n);
+		return at(new LessEqualNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(GreaterEqualNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (value(left) != null && value(right) != null) return boolNode(value(left) >= value(right), n);
+		return at(new GreaterEqualNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(TimesNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (value(left) != null && value(right) != null) return intNode(value(left) * value(right), n);
+		if (isInt(right, 1)) return left;
+		if (isInt(left, 1)) return right;
+		return at(new TimesNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(DivNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		// division by zero is left to the VM, which fails as the program would
+		if (value(left) != null && value(right) != null && value(right) != 0) return intNode(value(left) / value(right), n);
+		if (isInt(right, 1)) return left;
+		return at(new DivNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(PlusNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (value(left) != null && value(right) != null) return intNode(value(left) + value(right), n);
+		if (isInt(right, 0)) return left;
+		if (isInt(left, 0)) return right;
+		return at(new PlusNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(MinusNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (value(left) != null && value(right) != null) return intNode(value(left) - value(right), n);
+		if (isInt(right, 0)) return left;
+		return at(new MinusNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(NotNode n) {
+		if (print) printNode(n);
+		Node exp = visit(n.exp);
+		if (exp instanceof BoolNode) return boolNode(!((BoolNode) exp).val, n);
+		if (exp instanceof NotNode) return ((NotNode) exp).exp;
+		return at(new NotNode(exp), n);
+	}
+
+	@Override
+	public Node visitNode(AndNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (isBool(left, true)) return right;
+		if (isBool(right, true)) return left;
+		if ((isBool(left, false) && pure(right)) || (isBool(right, false) && pure(left))) return boolNode(false, n);
+		return at(new AndNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(OrNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (isBool(left, false)) return right;
+		if (isBool(right, false)) return left;
+		if ((isBool(left, true) && pure(right)) || (isBool(right, true) && pure(left))) return boolNode(true, n);
+		return at(new OrNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(CallNode n) {
+		if (print) printNode(n,n.id);
+		CallNode c = at(new CallNode(n.id, visitList(n.arglist)), n);
+		c.entry = n.entry;
+		c.nl = n.nl;
+		return c;
+	}
+
+	@Override
+	public Node visitNode(ClassCallNode n) {
+		if (print) printNode(n,n.id+"."+n.idMethod);
+		ClassCallNode c = at(new ClassCallNode(n.id, n.idMethod, visitList(n.arglist)), n);
+		c.entry = n.entry;
+		c.methodEntry = n.methodEntry;
+		c.nl = n.nl;
+		return c;
+	}
+
+	@Override
+	public Node visitNode(ObjectFieldNode n) {
+		if (print) printNode(n,n.object.id);
+		return n;
+	}
+
+	@Override
+	public Node visitNode(NullCheckNode n) {
+		if (print) printNode(n,n.object.id);
+		return at(new NullCheckNode(n.object, visit(n.exp)), n);
+	}
+
+	@Override
+	public Node visitNode(NewNode n) {
+		if (print) printNode(n,n.id);
+		NewNode c = at(new NewNode(n.id, visitList(n.arglist)), n);
+		c.entry = n.entry;
+		c.nl = n.nl;
+		return c;
+	}
+
+	@Override
+	public Node visitNode(IdNode n) {
+		if (print) printNode(n,n.id);
+		return n;
+	}
+
+	@Override
+	public Node visitNode(BoolNode n) {
+		if (print) printNode(n,n.val.toString());
+		return n;
+	}
+
+	@Override
+	public Node visitNode(IntNode n) {
+		if (print) printNode(n,n.val.toString());
+		return n;
+	}
+
+	@Override
+	public Node visitNode(EmptyNode n) {
+		if (print) printNode(n);
+		return n;
+	}
+
+}
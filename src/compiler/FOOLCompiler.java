@@ -0,0 +1,87 @@
+package compiler;
+
+import java.util.*;
+import org.antlr.v4.runtime.*;
+import compiler.lib.*;
+import compiler.exc.*;
+import svm.*;
+
+// Runs the same pipeline as Test without its diagnostic output,
+// so that the compiler can be driven programmatically (e.g. by benchmarks).
+public class FOOLCompiler {
+
+	public int lexicalErrors;
+	public int syntaxErrors;
+	public int symbolTableErrors;
+	public int typeErrors;
+
+	public boolean fuse = true; // assemble with the Peephole superinstructions
+	public boolean optimize = true; // inline calls and fold constants with InliningASTVisitor before code generation, devirtualize method calls
+	public int inlineBudget = InliningASTVisitor.BUDGET; // maximum size (in AST nodes) of an inlined body, 0 disables inlining
+	public boolean display = false; // reach non-local frames through the display of the VM (see CodeGenerationASTVisitor.frame)
+
+	public Map<String,Integer> labelLines; // FOOL source line of every label, set by codeGen
+	public Map<String,Integer> labels; // address of every label, set by compile (see ProfilingVM)
+	public LineTable lines; // source line and function of the code, set by compile (see ExecuteVM.setLines)
+
+	public int frontEndErrors() {
+		return lexicalErrors+syntaxErrors+symbolTableErrors+typeErrors;
+	}
+
+	// returns the enriched and type checked AST, or null if there were front-end errors
+	public Node frontEnd(CharStream chars) {
+		FOOLlib.reset();
+
+		FOOLLexer lexer = new FOOLLexer(chars);
+		FOOLParser parser = new FOOLParser(new CommonTokenStream(lexer));
+		Node ast = new ASTGenerationSTVisitor().visit(Parsing.parse(parser, FOOLParser::prog));
+		lexicalErrors = lexer.lexicalErrors;
+		syntaxErrors = parser.getNumberOfSyntaxErrors();
+
+		SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor();
+		symtableVisitor.visit(ast);
+		symbolTableErrors = symtableVisitor.stErrors;
+
+		try {
+			new TypeCheckEASTVisitor().visit(ast);
+		} catch (IncomplException e) {
+		} catch (TypeException e) {
+			System.out.println("Type checking error in main program expression: "+e.text);
+		}
+		typeErrors = FOOLlib.context().typeErrors;
+
+		return frontEndErrors() > 0 ? null : ast;
+	}
+
+	// returns the AST simplified by the optimization passes (if enabled)
+	public Node optimize(Node ast) {
+		return optimize ? new InliningASTVisitor(inlineBudget).visit(ast) : ast;
+	}
+
+	// generates code for an AST returned by frontEnd
+	public Code codeGen(Node ast) {
+		CodeGenerationASTVisitor codeGenerator = new CodeGenerationASTVisitor();
+		codeGenerator.devirtualize = optimize;
+		codeGenerator.display = display;
+		Code code = codeGenerator.visit(ast);
+		labelLines = codeGenerator.labelLines;
+		return code;
+	}
+
+	// returns the generated assembly, or null if there were front-end errors
+	public String generateCode(CharStream chars) {
+		Node ast = frontEnd(chars);
+		return ast == null ? null : codeGen(optimize(ast)).toString();
+	}
+
+	// returns the bytecode for ExecuteVM, or null if there were front-end errors
+	public int[] compile(CharStream chars) {
+		Node ast = frontEnd(chars);
+		if (ast == null) return null;
+		BytecodeEmitter emitter = BytecodeEmitter.emitter(codeGen(optimize(ast)), fuse);
+		int[] code = emitter.toCode();
+		labels = emitter.labels();
+		lines = emitter.lines();
+		return code;
+	}
+}
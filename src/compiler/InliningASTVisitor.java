@@ -0,0 +1,210 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.lib.*;
+
+import java.util.*;
+
+//Sostituisce le chiamate a funzioni piccole, e ai metodi che nessuna sottoclasse ridefinisce,
+//con il corpo della funzione o del metodo in cui i parametri sono sostituiti dagli argomenti:
+//- sono inlined i corpi senza dichiarazioni locali con al piu' budget nodi, fatti di costanti,
+//  id, operatori, if e (solo nelle funzioni) chiamate ad altre funzioni; una funzione non e'
+//  ancora registrata mentre si visita il suo corpo, e una copia inlined e' visitata senza
+//  inlining delle funzioni che si stanno gia' espandendo, quindi le chiamate ricorsive restano
+//- gli id copiati usano il nesting level del punto di chiamata, con le entry (e gli offset)
+//  assegnati dalla symbol table; i campi usati da un metodo diventano ObjectFieldNode
+//- un argomento che non e' una costante o un id e' inlined solo se il suo parametro e' usato
+//  una volta, fuori dai rami di if/&&/||, in un corpo senza chiamate ne' divisioni: e' cosi'
+//  valutato esattamente una volta, senza cambiare l'ordine degli effetti
+//- il corpo di un metodo inlined e' preceduto dal controllo che l'oggetto non sia null
+//  (NullCheckNode), quindi la chiamata su null fallisce anche se il corpo non usa campi; gli
+//  argomenti di un metodo devono essere costanti o id, perche' la chiamata li valuta prima
+//Estende ConstantFoldingASTVisitor, che semplifica il corpo inlined con i suoi argomenti.
+public class InliningASTVisitor extends ConstantFoldingASTVisitor {
+
+	public static final int BUDGET = 10; // default maximum size of an inlined body, in AST nodes
+
+	// classes are global: their fields are at nesting level 1, parameters of methods at 2
+	private static final int FIELD_NL = 1, METHOD_NL = 2;
+
+	private final int budget;
+	private final Map<STentry, FunNode> functions = new HashMap<>(); // by the entry used in calls
+	private final Map<String, List<MethodNode>> classMethods = new HashMap<>(); // by offset, as in the dispatch table
+	private Set<String> overridden = new HashSet<>(); // see TypeRels.overriddenMethods
+	private final Set<FunNode> inlining = new HashSet<>(); // functions and methods whose inlined copy is being visited
+
+	InliningASTVisitor(int budget) {
+		this.budget = budget;
+	}
+
+	@Override
+	public Node visitNode(ProgLetInNode n) {
+		overridden = TypeRels.overriddenMethods(n.classlist);
+		return super.visitNode(n);
+	}
+
+	@Override
+	public Node visitNode(FunNode n) {
+		FunNode f = (FunNode) super.visitNode(n);
+		functions.put(f.entry, f);
+		return f;
+	}
+
+	@Override
+	public Node visitNode(ClassNode n) {
+		ClassNode c = (ClassNode) super.visitNode(n);
+		List<MethodNode> methods = c.superId.isEmpty() ? new ArrayList<>() : new ArrayList<>(classMethods.get(c.superId));
+		for (MethodNode method : c.methodlist)
+			if (method.offset < methods.size()) methods.set(method.offset, method);
+			else methods.add(method);
+		classMethods.put(c.id, methods);
+		return c;
+	}
+
+	@Override
+	public Node visitNode(CallNode n) {
+		CallNode c = (CallNode) super.visitNode(n);
+		FunNode f = functions.get(c.entry);
+		if (f == null) return c; // a method of the current class, a parameter, or a recursive call
+		return visitInlined(f, c, inline(f, f.entry.nl+1, c.arglist, c.nl, null));
+	}
+
+	@Override
+	public Node visitNode(ClassCallNode n) {
+		ClassCallNode c = (ClassCallNode) super.visitNode(n);
+		String classId = ((RefTypeNode) c.entry.type).classId;
+		List<MethodNode> methods = classMethods.get(classId); // null inside the class itself
+		if (methods == null || overridden.contains(classId+"."+c.methodEntry.offset)) return c;
+		IdNode object = at(new IdNode(c.id), c);
+		object.entry = c.entry;
+		object.nl = c.nl;
+		MethodNode method = methods.get(c.methodEntry.offset);
+		Node body = inline(method, METHOD_NL, c.arglist, c.nl, object);
+		return visitInlined(method, c, body == null ? null : at(new NullCheckNode(object, body), c));
+	}
+
+	// the inlined body of f (simplified, with the calls in it inlined) in place of call, or call
+	// if body is null or f is being inlined already: the copy of a recursive function contains
+	// calls to the function itself, which would be inlined again without end
+	private Node visitInlined(FunNode f, Node call, Node body) {
+		if (body == null || !inlining.add(f)) return call;
+		Node n = visit(body);
+		inlining.remove(f);
+		return n;
+	}
+
+	// body of f, whose parameters are at nesting level level, for a call at nesting level nl,
+	// or null if it cannot be inlined; object is the receiver for a method, null for a function
+	private Node inline(FunNode f, int level, List<Node> args, int nl, IdNode object) {
+		if (!f.declist.isEmpty() || size(f.exp) > budget || !inlinable(f.exp, level, object != null)) return null;
+		int[] uses = new int[args.size()];
+		boolean[] objects = new boolean[args.size()];
+		countUses(f.exp, level, uses, objects, 1);
+		int impure = 0;
+		for (int i = 0; i < args.size(); i++) {
+			if (objects[i] && !(args.get(i) instanceof IdNode)) return null;
+			if (!pure(args.get(i)) && (object != null || ++impure > 1 || uses[i] != 1 || hasEffects(f.exp))) return null;
+		}
+		return copy(f.exp, level, args, nl, object);
+	}
+
+	// sub-expressions of n, null if n cannot be in an inlined body
+	private static List<Node> children(Node n) {
+		if (n instanceof IntNode || n instanceof BoolNode || n instanceof EmptyNode || n instanceof IdNode
+			|| n instanceof ObjectFieldNode) return List.of();
+		if (n instanceof CallNode c) return c.arglist;
+		if (n instanceof IfNode i) return List.of(i.cond, i.th, i.el);
+		if (n instanceof NotNode x) return List.of(x.exp);
+		if (n instanceof EqualNode b) return List.of(b.left, b.right);
+		if (n instanceof LessEqualNode b) return List.of(b.left, b.right);
+		if (n instanceof GreaterEqualNode b) return List.of(b.left, b.right);
+		if (n instanceof PlusNode b) return List.of(b.left, b.right);
+		if (n instanceof MinusNode b) return List.of(b.left, b.right);
+		if (n instanceof TimesNode b) return List.of(b.left, b.right);
+		if (n instanceof DivNode b) return List.of(b.left, b.right);
+		if (n instanceof AndNode b) return List.of(b.left, b.right);
+		if (n instanceof OrNode b) return List.of(b.left, b.right);
+		return null;
+	}
+
+	private static int size(Node n) {
+		int size = 1;
+		List<Node> children = children(n);
+		if (children != null) for (Node child : children) size += size(child);
+		return size;
+	}
+
+	private static boolean inlinable(Node n, int level, boolean method) {
+		List<Node> children = children(n);
+		if (children == null) return false;
+		if (n instanceof IdNode id) {
+			if (id.entry.type instanceof ArrowTypeNode) return false; // a function used as a value
+			// in a method only parameters and fields: the Access Link of its frame is the object
+			if (method && id.entry.nl != level && id.entry.nl != FIELD_NL) return false;
+		}
+		if (n instanceof ObjectFieldNode && method) return false;
+		if (n instanceof CallNode c && (method || c.entry.nl == level || !(c.entry.type instanceof ArrowTypeNode)))
+			return false;
+		for (Node child : children) if (!inlinable(child, level, method)) return false;
+		return true;
+	}
+
+	// adds weight to uses[i] for every use of parameter i+1: 1 if always evaluated, 2 otherwise;
+	// objects[i] if the parameter is the object of an ObjectFieldNode, so its argument must be an id
+	private static void countUses(Node n, int level, int[] uses, boolean[] objects, int weight) {
+		boolean object = n instanceof ObjectFieldNode;
+		if (n instanceof ObjectFieldNode o) n = o.object;
+		if (n instanceof IdNode id && id.entry.nl == level) {
+			uses[id.entry.offset-1] += weight;
+			objects[id.entry.offset-1] |= object;
+		}
+		List<Node> children = children(n);
+		for (int i = 0; i < children.size(); i++) {
+			boolean conditional = i > 0 && (n instanceof IfNode || n instanceof AndNode || n instanceof OrNode);
+			countUses(children.get(i), level, uses, objects, conditional ? 2 : weight);
+		}
+	}
+
+	// calls can print, divisions can fail
+	private static boolean hasEffects(Node n) {
+		if (n instanceof CallNode || n instanceof DivNode) return true;
+		for (Node child : children(n)) if (hasEffects(child)) return true;
+		return false;
+	}
+
+	private Node copy(Node n, int level, List<Node> args, int nl, IdNode object) {
+		if (n instanceof IdNode id) {
+			if (id.entry.nl == level) return args.get(id.entry.offset-1);
+			if (object != null) return at(new ObjectFieldNode(object, id.entry), n);
+			IdNode c = at(new IdNode(id.id), n);
+			c.entry = id.entry;
+			c.nl = nl;
+			return c;
+		}
+		if (n instanceof ObjectFieldNode o)
+			return at(new ObjectFieldNode((IdNode) copy(o.object, level, args, nl, object), o.field), n);
+		if (n instanceof CallNode call) {
+			List<Node> copied = new ArrayList<>();
+			for (Node arg : call.arglist) copied.add(copy(arg, level, args, nl, object));
+			CallNode c = at(new CallNode(call.id, copied), n);
+			c.entry = call.entry;
+			c.nl = nl;
+			return c;
+		}
+		List<Node> c = new ArrayList<>();
+		for (Node child : children(n)) c.add(copy(child, level, args, nl, object));
+		if (n instanceof IfNode) return at(new IfNode(c.get(0), c.get(1), c.get(2)), n);
+		if (n instanceof NotNode) return at(new NotNode(c.get(0)), n);
+		if (n instanceof EqualNode) return at(new EqualNode(c.get(0), c.get(1)), n);
+		if (n instanceof LessEqualNode) return at(new LessEqualNode(c.get(0), c.get(1)), n);
+		if (n instanceof GreaterEqualNode) return at(new GreaterEqualNode(c.get(0), c.get(1)), n);
+		if (n instanceof PlusNode) return at(new PlusNode(c.get(0), c.get(1)), n);
+		if (n instanceof MinusNode) return at(new MinusNode(c.get(0), c.get(1)), n);
+		if (n instanceof TimesNode) return at(new TimesNode(c.get(0), c.get(1)), n);
+		if (n instanceof DivNode) return at(new DivNode(c.get(0), c.get(1)), n);
+		if (n instanceof AndNode) return at(new AndNode(c.get(0), c.get(1)), n);
+		if (n instanceof OrNode) return at(new OrNode(c.get(0), c.get(1)), n);
+		return n; // literals
+	}
+
+}
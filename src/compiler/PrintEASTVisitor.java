@@ -224,6 +224,22 @@ public class PrintEASTVisitor extends BaseEASTVisitor<Void,VoidException> {
 		return null;
 	}
 
+	@Override
+	public Void visitNode(ObjectFieldNode n) throws VoidException {
+		printNode(n);
+		visit(n.object);
+		visit(n.field);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(NullCheckNode n) throws VoidException {
+		printNode(n);
+		visit(n.object);
+		visit(n.exp);
+		return null;
+	}
+
 	@Override
 	public Void visitNode(RefTypeNode n) throws VoidException {
 		printNode(n);
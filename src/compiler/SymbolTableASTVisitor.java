@@ -53,7 +53,8 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 		Map<String, STentry> hm = symTable.get(nestingLevel);
 		List<TypeNode> parTypes = new ArrayList<>();
 		for (ParNode par : n.parlist) parTypes.add(par.getType());
-		STentry entry = new STentry(nestingLevel, new ArrowTypeNode(parTypes,n.retType),decOffset--);
+		STentry entry = new STentry(nestingLevel, Types.arrow(parTypes,n.retType),decOffset--);
+		n.entry = entry;
 		// add the id into the symtable
 		if (hm.put(n.id, entry) != null) {
 			System.out.println("Fun id " + n.id + " at line "+ n.getLine() +" already declared");
@@ -178,7 +179,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 					// update all fields of the ClassTypeNode
 					method.offset = decOffset;
 					decOffset++;
-					classTypeNode.allMethods.add(new MethodTypeNode(new ArrowTypeNode(method.parlist.stream().map(DecNode::getType).collect(Collectors.toList()), method.retType)));
+					classTypeNode.allMethods.add(new MethodTypeNode(Types.arrow(method.parlist.stream().map(DecNode::getType).collect(Collectors.toList()), method.retType)));
 				} else {
 					// override
 					STentry oldEntry = virtualTable.get(method.id);
@@ -192,7 +193,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 						method.offset = oldEntry.offset;
 						classTypeNode.allMethods.set(oldEntry.offset,
 								new MethodTypeNode(
-										new ArrowTypeNode(method.parlist.stream().map(DecNode::getType).collect(Collectors.toList()), method.retType))
+										Types.arrow(method.parlist.stream().map(DecNode::getType).collect(Collectors.toList()), method.retType))
 						);
 					}
 				}
@@ -213,7 +214,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 		n.offset = decOffset;
 
 		// Creating and setting the method type
-		MethodTypeNode methodType = new MethodTypeNode(new ArrowTypeNode(parTypes, n.retType));
+		MethodTypeNode methodType = new MethodTypeNode(Types.arrow(parTypes, n.retType));
 		n.setType(methodType);
 
 		nestingLevel++;
@@ -227,6 +228,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 				System.out.println("Par id " + par.id + " at line "+ n.getLine() +" already declared");
 				stErrors++;
 			}
+		decOffset=-2; // local declarations below the return address, as in functions
 		for (Node dec : n.declist) visit(dec);
 		visit(n.exp);
 
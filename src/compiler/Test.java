@@ -1,6 +1,8 @@
 package compiler;
 
 import java.io.*;
+import java.nio.file.*;
+import java.util.*;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
 import compiler.lib.*;
@@ -11,6 +13,31 @@ public class Test {
     public static void main(String[] args) throws Exception {
    			
     	String fileName = "bankloan.fool";
+    	boolean dumpAsm = Boolean.getBoolean("dumpAsm"); // -DdumpAsm=true also writes fileName.asm
+    	String engine = System.getProperty("vm"); // -Dvm=threaded (or tagged, jit, tos) selects another engine, see VirtualMachine.of
+    	boolean fuse = !Boolean.getBoolean("noFuse"); // -DnoFuse=true assembles without superinstructions
+    	boolean optimize = !Boolean.getBoolean("noOpt"); // -DnoOpt=true skips inlining, constant folding and devirtualization
+    	int inlineBudget = Integer.getInteger("inlineBudget", InliningASTVisitor.BUDGET); // -DinlineBudget=0 disables inlining
+    	boolean display = Boolean.getBoolean("display"); // -Ddisplay=true reaches non-local frames through the display of the VM
+    	String profile = System.getProperty("profile"); // -Dprofile=file.folded runs with ProfilingVM: flat profile after the output, collapsed stacks in the file
+
+    	String cacheDir = System.getProperty("cache"); // -Dcache=dir reuses the bytecode compiled before for the same source, see CompileCache
+
+    	if (cacheDir != null) { // diagnostics only, as FOOLCompiler
+    		FOOLCompiler compiler = new FOOLCompiler();
+    		compiler.fuse = fuse;
+    		compiler.optimize = optimize;
+    		compiler.inlineBudget = inlineBudget;
+    		compiler.display = display;
+    		CompileCache cache = new CompileCache(Path.of(cacheDir));
+    		int[] bytecode = cache.compile(compiler, Files.readString(Path.of(fileName)));
+    		System.out.println(cache.stats());
+    		System.out.println("You had a total of "+compiler.frontEndErrors()+" front-end errors.\n");
+    		if (bytecode == null) System.exit(1);
+    		System.out.println("Running generated code via Stack Virtual Machine.");
+    		VirtualMachine.of(engine, bytecode, compiler.lines).cpu(); // failures report the FOOL line
+    		return;
+    	}
 
     	CharStream chars = CharStreams.fromFileName(fileName);
     	FOOLLexer lexer = new FOOLLexer(chars);
@@ -18,7 +45,7 @@ public class Test {
     	FOOLParser parser = new FOOLParser(tokens);
 
     	System.out.println("Generating ST via lexer and parser.");
-    	ParseTree st = parser.prog();
+    	ParseTree st = Parsing.parse(parser, FOOLParser::prog); // SLL first, -DnoSLL=true for LL only
     	System.out.println("You had "+lexer.lexicalErrors+" lexical errors and "+
     		parser.getNumberOfSyntaxErrors()+" syntax errors.\n");
 
@@ -47,35 +74,50 @@ public class Test {
     	} catch (TypeException e) {
     		System.out.println("Type checking error in main program expression: "+e.text); 
     	}       	
-    	System.out.println("You had "+FOOLlib.typeErrors+" type checking errors.\n");
+    	System.out.println("You had "+FOOLlib.context().typeErrors+" type checking errors.\n");
 
-    	int frontEndErrors = lexer.lexicalErrors+parser.getNumberOfSyntaxErrors()+symtableVisitor.stErrors+FOOLlib.typeErrors;
+    	int frontEndErrors = lexer.lexicalErrors+parser.getNumberOfSyntaxErrors()+symtableVisitor.stErrors+FOOLlib.context().typeErrors;
 		System.out.println("You had a total of "+frontEndErrors+" front-end errors.\n");
 		
 		if ( frontEndErrors > 0) System.exit(1);   
 
+    	if (optimize) {
+    		System.out.println("Inlining calls and folding constants.");
+    		ast = new InliningASTVisitor(inlineBudget).visit(ast);
+    		System.out.println("");
+    	}
+
     	System.out.println("Generating code.");
-    	String code = new CodeGenerationASTVisitor().visit(ast);        
-    	BufferedWriter out = new BufferedWriter(new FileWriter(fileName+".asm")); 
-    	out.write(code);
-    	out.close(); 
+    	CodeGenerationASTVisitor codeGenerator = new CodeGenerationASTVisitor();
+    	codeGenerator.devirtualize = optimize;
+    	codeGenerator.display = display;
+    	Code code = codeGenerator.visit(ast);        
+    	if (dumpAsm) { // textual form is only needed for debug
+    		BufferedWriter out = new BufferedWriter(new FileWriter(fileName+".asm")); 
+    		out.write(code.toString());
+    		out.close(); 
+    	}
     	System.out.println("");
 
     	System.out.println("Assembling generated code.");
-    	CharStream charsASM = CharStreams.fromFileName(fileName+".asm");
-    	SVMLexer lexerASM = new SVMLexer(charsASM);
-    	CommonTokenStream tokensASM = new CommonTokenStream(lexerASM);
-    	SVMParser parserASM = new SVMParser(tokensASM);
-
-    	parserASM.assembly();
-
-    	// needed only for debug
-    	System.out.println("You had: "+lexerASM.lexicalErrors+" lexical errors and "+parserASM.getNumberOfSyntaxErrors()+" syntax errors.\n");
-    	if (lexerASM.lexicalErrors+parserASM.getNumberOfSyntaxErrors()>0) System.exit(1);
+    	BytecodeEmitter emitter = BytecodeEmitter.emitter(code, fuse); // in memory, no .asm round-trip
+    	int[] bytecode = emitter.toCode();
+    	Map<String,Integer> labels = emitter.labels();
+    	System.out.println("");
 
     	System.out.println("Running generated code via Stack Virtual Machine.");
-    	ExecuteVM vm = new ExecuteVM(parserASM.code);
-    	vm.cpu();
+    	if (profile != null) {
+    		ProfilingVM profiler = new ProfilingVM(bytecode, labels, codeGenerator.labelLines);
+    		profiler.setLines(emitter.lines());
+    		profiler.cpu();
+    		System.out.println("");
+    		profiler.printProfile(System.out);
+    		try (PrintStream out = new PrintStream(profile)) {
+    			profiler.printCollapsed(out);
+    		}
+    		return;
+    	}
+    	VirtualMachine.of(engine, bytecode, emitter.lines()).cpu(); // failures report the FOOL line
 
     }
 }
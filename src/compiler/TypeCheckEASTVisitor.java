@@ -7,6 +7,7 @@ import compiler.lib.*;
 import java.util.Objects;
 
 import static compiler.TypeRels.*;
+import static compiler.Types.*;
 
 //visitNode(n) fa il type checking di un Node n e ritorna:
 //- per una espressione, il suo tipo (oggetto BoolTypeNode o IntTypeNode)
@@ -113,7 +114,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 		boolean extension = false;
 		// if this class extends another, add the supertype to the collection
 		if(!Objects.equals(n.superId, "")) {
-			superType.put(n.id, n.superId);
+			FOOLlib.context().superType.put(n.id, n.superId);
 			extension = true;
 		}
 		// check if override is correctly done
@@ -181,7 +182,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 	public TypeNode visitNode(IfNode n) throws TypeException {
 		if (print) printNode(n);
 		// check the boolean condition
-		if ( !(isSubtype(visit(n.cond), new BoolTypeNode())) )
+		if ( !(isSubtype(visit(n.cond), BOOL)) )
 			throw new TypeException("Non boolean condition in if",n.getLine());
 		TypeNode t = visit(n.th);
 		TypeNode e = visit(n.el);
@@ -204,36 +205,36 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 		// subtype relation between two operands
 		if ( !(isSubtype(l, r) || isSubtype(r, l)) )
 			throw new TypeException("Incompatible types in equal",n.getLine());
-		return new BoolTypeNode();
+		return BOOL;
 	}
 
 	@Override
 	public TypeNode visitNode(TimesNode n) throws TypeException {
 		if (print) printNode(n);
 		// subtype relation between int type and two operands
-		if ( !(isSubtype(visit(n.left), new IntTypeNode())
-				&& isSubtype(visit(n.right), new IntTypeNode())) )
+		if ( !(isSubtype(visit(n.left), INT)
+				&& isSubtype(visit(n.right), INT)) )
 			throw new TypeException("Non integers in multiplication",n.getLine());
-		return new IntTypeNode();
+		return INT;
 	}
 
 	@Override
 	public TypeNode visitNode(PlusNode n) throws TypeException {
 		if (print) printNode(n);
 		// subtype relation between int type and two operands
-		if ( !(isSubtype(visit(n.left), new IntTypeNode())
-				&& isSubtype(visit(n.right), new IntTypeNode())) )
+		if ( !(isSubtype(visit(n.left), INT)
+				&& isSubtype(visit(n.right), INT)) )
 			throw new TypeException("Non integers in sum",n.getLine());
-		return new IntTypeNode();
+		return INT;
 	}
 
 	@Override
 	public TypeNode visitNode(NotNode n) throws TypeException {
 		if (print) printNode(n);
 		// subtype relation between bool type and two operands
-		if ( !(isSubtype(visit(n.exp), new BoolTypeNode())))
+		if ( !(isSubtype(visit(n.exp), BOOL)))
 			throw new TypeException("Non boolean in not",n.getLine());
-		return new BoolTypeNode();
+		return BOOL;
 	}
 
 	@Override
@@ -262,64 +263,64 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 	public TypeNode visitNode(LessEqualNode n) throws TypeException {
 		if (print) printNode(n);
 		// subtype relation between int type and two operands
-		if ( !(isSubtype(visit(n.left), new IntTypeNode())))
+		if ( !(isSubtype(visit(n.left), INT)))
 			throw new TypeException("Non integers in lesseq, type is " + visit(n.left),n.getLine());
-		if ( !(isSubtype(visit(n.right), new IntTypeNode())))
+		if ( !(isSubtype(visit(n.right), INT)))
 			throw new TypeException("Non integers in lesseq, type is " + visit(n.right),n.getLine());
-		return new BoolTypeNode();
+		return BOOL;
 	}
 
 	@Override
 	public TypeNode visitNode(GreaterEqualNode n) throws TypeException {
 		if (print) printNode(n);
 		// subtype relation between int type and two operands
-		if ( !(isSubtype(visit(n.left), new IntTypeNode())))
+		if ( !(isSubtype(visit(n.left), INT)))
 			throw new TypeException("Non integers in greq",n.getLine());
-		if ( !(isSubtype(visit(n.right), new IntTypeNode())))
+		if ( !(isSubtype(visit(n.right), INT)))
 			throw new TypeException("Non integers in greq",n.getLine());
-		return new BoolTypeNode();
+		return BOOL;
 	}
 
 	@Override
 	public TypeNode visitNode(OrNode n) throws TypeException {
 		if (print) printNode(n);
 		// subtype relation between boolean type and two operands
-		if ( !(isSubtype(visit(n.left), new BoolTypeNode())))
+		if ( !(isSubtype(visit(n.left), BOOL)))
 			throw new TypeException("Non boolean in or",n.getLine());
-		if ( !(isSubtype(visit(n.right), new BoolTypeNode())))
+		if ( !(isSubtype(visit(n.right), BOOL)))
 			throw new TypeException("Non boolean in or",n.getLine());
-		return new BoolTypeNode();
+		return BOOL;
 	}
 
 	@Override
 	public TypeNode visitNode(AndNode n) throws TypeException {
 		if (print) printNode(n);
 		// subtype relation between boolean type and two operands
-		if ( !(isSubtype(visit(n.left), new BoolTypeNode())))
+		if ( !(isSubtype(visit(n.left), BOOL)))
 			throw new TypeException("Non boolean in and",n.getLine());
-		if ( !(isSubtype(visit(n.right), new BoolTypeNode())))
+		if ( !(isSubtype(visit(n.right), BOOL)))
 			throw new TypeException("Non boolean in and",n.getLine());
-		return new BoolTypeNode();
+		return BOOL;
 	}
 
 	@Override
 	public TypeNode visitNode(DivNode n) throws TypeException {
 		if (print) printNode(n);
 		// subtype relation between int type and two operands
-		if ( !(isSubtype(visit(n.left), new IntTypeNode())
-				&& isSubtype(visit(n.right), new IntTypeNode())) )
+		if ( !(isSubtype(visit(n.left), INT)
+				&& isSubtype(visit(n.right), INT)) )
 			throw new TypeException("Non integers in div",n.getLine());
-		return new IntTypeNode();
+		return INT;
 	}
 
 	@Override
 	public TypeNode visitNode(MinusNode n) throws TypeException {
 		if (print) printNode(n);
 		// subtype relation between int type and two operands
-		if ( !(isSubtype(visit(n.left), new IntTypeNode())
-				&& isSubtype(visit(n.right), new IntTypeNode())) )
+		if ( !(isSubtype(visit(n.left), INT)
+				&& isSubtype(visit(n.right), INT)) )
 			throw new TypeException("Non integers in minus",n.getLine());
-		return new IntTypeNode();
+		return INT;
 	}
 
 	@Override
@@ -353,7 +354,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 
 	@Override
 	public TypeNode visitNode(EmptyNode nullNode) throws TypeException {
-		return new EmptyTypeNode();
+		return EMPTY;
 	}
 
 	@Override
@@ -375,7 +376,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 			if (!(isSubtype(visit(n.arglist.get(i)), at.allFields.get(i))))
 				throw new TypeException("Wrong type for " + (i + 1) + "-th parameter in the invocation of " + n.id, n.getLine());
 		}
-		return new RefTypeNode(n.id);
+		return ref(n.id);
 	}
 
 	@Override
@@ -392,13 +393,13 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 	@Override
 	public TypeNode visitNode(BoolNode n) {
 		if (print) printNode(n,n.val.toString());
-		return new BoolTypeNode();
+		return BOOL;
 	}
 
 	@Override
 	public TypeNode visitNode(IntNode n) {
 		if (print) printNode(n,n.val.toString());
-		return new IntTypeNode();
+		return INT;
 	}
 	
 	@Override
@@ -5,27 +5,36 @@ import compiler.lib.*;
 
 import java.sql.Ref;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
-public class TypeRels {
+import static compiler.Types.*;
 
-	public static Map<String, String> superType = new HashMap<>();
+public class TypeRels {
 
+	// types are interned (see Types): equal types are the same object
 	public static boolean isSubtype(TypeNode a, TypeNode b) {
-		return a.getClass().equals(b.getClass()) ||
-				((a instanceof BoolTypeNode) && (b instanceof IntTypeNode)) ||
-				((a instanceof EmptyTypeNode) && (b instanceof RefTypeNode)) ||
+		return a == b ||
+				(a == BOOL && b == INT) ||
+				(a == EMPTY && b instanceof RefTypeNode) ||
 				isSubClass(a, b) ||
 				isOverride(a, b);
 	}
 
+	// for functions, and for methods (whose types are not interned) through their function types
 	public static boolean isOverride(TypeNode a, TypeNode b) {
+		if(a instanceof MethodTypeNode && b instanceof MethodTypeNode)
+			return isSubtype(((MethodTypeNode) a).fun, ((MethodTypeNode) b).fun);
 		if(!(a instanceof ArrowTypeNode) || !(b instanceof ArrowTypeNode))
 			return false;
 
 		ArrowTypeNode ar_a = (ArrowTypeNode) a;
 		ArrowTypeNode ar_b = (ArrowTypeNode) b;
+		if(ar_a.parlist.size() != ar_b.parlist.size())
+			return false;
 		boolean covariancy = true;
 
 		for(int i = 0; i < ar_b.parlist.size(); i++) {
@@ -45,20 +54,34 @@ public class TypeRels {
 
 		String a_id = ((RefTypeNode) a).classId;
 		String b_id = ((RefTypeNode) b).classId;
+		Map<String, String> superType = FOOLlib.context().superType;
 		while(!a_id.equals(b_id)) {
 			a_id = superType.get(a_id);
-			if(Objects.equals(a_id, "")) return false;
+			if(a_id == null || Objects.equals(a_id, "")) return false; // a class without superclass is not in superType
 		}
 		return true;
 	}
 
+	// "C.k" for every class C with a subclass that redefines the method at offset k
+	// (after type checking, which fills superType)
+	public static Set<String> overriddenMethods(List<ClassNode> classes) {
+		Map<String, String> superType = FOOLlib.context().superType;
+		Set<String> overridden = new HashSet<>();
+		for (ClassNode cl : classes)
+			for (MethodNode method : cl.methodlist)
+				for (String c = superType.get(cl.id); c != null; c = superType.get(c))
+					overridden.add(c+"."+method.offset);
+		return overridden;
+	}
+
 	public static TypeNode lowestCommonAncestor(TypeNode a, TypeNode b) {
 		if(a instanceof RefTypeNode && b instanceof EmptyTypeNode) return a;
 		if(a instanceof EmptyTypeNode && b instanceof RefTypeNode) return b;
 		if(a instanceof RefTypeNode currentType && b instanceof RefTypeNode) {
 			if(isSubtype(b, a)) return a;
+			Map<String, String> superType = FOOLlib.context().superType;
 			while(superType.containsKey(currentType.classId)) {
-				currentType = new RefTypeNode(superType.get(currentType.classId));
+				currentType = ref(superType.get(currentType.classId));
 				if(isSubtype(b, currentType)) return currentType;
 			}
 			return null;
@@ -66,8 +89,8 @@ public class TypeRels {
 
 		if((a instanceof BoolTypeNode || a instanceof IntTypeNode) &&
 				(b instanceof BoolTypeNode || b instanceof IntTypeNode)) {
-			if(a instanceof IntTypeNode || b instanceof IntTypeNode) return new IntTypeNode();
-			return new BoolTypeNode();
+			if(a instanceof IntTypeNode || b instanceof IntTypeNode) return INT;
+			return BOOL;
 		}
 
 		return null;
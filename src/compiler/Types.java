@@ -0,0 +1,31 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.lib.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Factory of interned type nodes: int, bool and the type of null are singletons,
+// each class has one RefTypeNode and each function type (parameter types and return
+// type, themselves interned) one ArrowTypeNode, for the whole compilation (see
+// CompilationContext). Two types built here are equal if and only if they are the
+// same object, so TypeRels compares them with ==. Type nodes are shared: they
+// carry no line and must not be modified.
+public class Types {
+
+	public static final IntTypeNode INT = new IntTypeNode();
+	public static final BoolTypeNode BOOL = new BoolTypeNode();
+	public static final EmptyTypeNode EMPTY = new EmptyTypeNode();
+
+	public static RefTypeNode ref(String classId) {
+		return FOOLlib.context().refTypes.computeIfAbsent(classId, RefTypeNode::new);
+	}
+
+	// parTypes and ret must be interned
+	public static ArrowTypeNode arrow(List<TypeNode> parTypes, TypeNode ret) {
+		List<TypeNode> key = new ArrayList<>(parTypes); // elements compared by identity, as Node does not redefine equals
+		key.add(ret);
+		return FOOLlib.context().arrowTypes.computeIfAbsent(key, k -> new ArrowTypeNode(new ArrayList<>(parTypes), ret));
+	}
+}
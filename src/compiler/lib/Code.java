@@ -0,0 +1,71 @@
+package compiler.lib;
+
+import java.util.*;
+
+/**
+ * Append-only buffer of generated code lines. Joining buffers only stores a
+ * reference to them, so the code generator builds the program in time linear
+ * in its size; the actual text (lines separated by "\n", as nlJoin used to
+ * produce) is materialized once, by toString() or by iterating over the lines.
+ */
+public class Code implements Iterable<String> {
+
+	private final List<Object> parts = new ArrayList<>(); // String lines or nested Code
+
+	// part is a single line of code (String) or another buffer (Code); null is ignored
+	public Code append(Object part) {
+		if (part == null) return this;
+		if (!(part instanceof String || part instanceof Code))
+			throw new IllegalArgumentException("Not a line of code: "+part);
+		parts.add(part);
+		return this;
+	}
+
+	// visits the nested buffers with an explicit stack: nesting can be as deep as the program is long
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private final Deque<Iterator<Object>> stack = new ArrayDeque<>(List.of(parts.iterator()));
+			private String next = advance();
+
+			private String advance() {
+				while (!stack.isEmpty()) {
+					Iterator<Object> it = stack.peek();
+					if (!it.hasNext()) {
+						stack.pop();
+						continue;
+					}
+					Object p = it.next();
+					if (p instanceof String) return (String) p;
+					stack.push(((Code) p).parts.iterator());
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public String next() {
+				if (next == null) throw new NoSuchElementException();
+				String line = next;
+				next = advance();
+				return line;
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		boolean first = true;
+		for (String line : this) {
+			if (!first) sb.append('\n');
+			sb.append(line);
+			first = false;
+		}
+		return sb.toString();
+	}
+}
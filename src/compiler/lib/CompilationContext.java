@@ -0,0 +1,23 @@
+package compiler.lib;
+
+import java.util.*;
+import compiler.AST.*;
+
+// stato di una singola compilazione, che FOOLlib associa al thread che la esegue:
+// compilazioni in thread diversi non condividono contatori, codice o gerarchia delle classi
+public class CompilationContext {
+
+	public int typeErrors = 0;
+
+	int labCount = 0;
+
+	int funlabCount = 0;
+
+	Code funCode = null;
+
+	public final Map<String, String> superType = new HashMap<>(); // classe -> superclasse, riempita dal type checking
+
+	public final Map<String, RefTypeNode> refTypes = new HashMap<>(); // unico RefTypeNode di ogni classe (vedi Types)
+
+	public final Map<List<TypeNode>, ArrowTypeNode> arrowTypes = new HashMap<>(); // tipi dei parametri e di ritorno -> unico ArrowTypeNode
+}
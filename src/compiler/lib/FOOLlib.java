@@ -14,36 +14,43 @@ public class FOOLlib {
     	return Character.toLowerCase(s.charAt(0))+s.substring(1,s.length());
     }
     
-	public static int typeErrors = 0;
+	private static final ThreadLocal<CompilationContext> context = ThreadLocal.withInitial(CompilationContext::new);
 
-	// crea un'unica stringa a partire da un insieme di stringhe concatenadole e 
-	// introducendo, all'interno, dei newline "\n" come separatore tra le stringhe
-	public static String nlJoin(String... lines) { //argomenti null ignorati 
-		String code = null;
+	// contesto della compilazione in corso nel thread corrente
+	public static CompilationContext context() {
+		return context.get();
+	}
+
+	// crea un unico codice a partire da un insieme di linee (String) o di codici (Code)
+	// accodandoli, senza copiarli, nell'ordine dato: il testo finale ha un newline "\n"
+	// come separatore tra le linee
+	public static Code nlJoin(Object... lines) { //argomenti null ignorati 
+		Code code = null;
 		for (int i = 0; i<lines.length; i++) 
-			if (lines[i]!=null) code = (code==null?"":code+"\n")+lines[i]; 
+			if (lines[i]!=null) code = (code==null?new Code():code).append(lines[i]); 
 		return code;
 	}
 
-	private static int labCount = 0;
-
 	public static String freshLabel() {
-		return "label"+(labCount++);
+		return "label"+(context().labCount++);
 	}
 
-	private static int funlabCount = 0;
-
 	public static String freshFunLabel() {
-		return "function"+(funlabCount++);
+		return "function"+(context().funlabCount++);
 	}
 
-	private static String funCode = null;
+	public static void putCode(Code c) {
+		CompilationContext context = context();
+		if (context.funCode == null) context.funCode = new Code();
+		context.funCode.append("").append(c); //linea vuota di separazione prima di codice funzione
+	}
 
-	public static void putCode(String c) {
-		funCode = nlJoin(funCode, "", c); //linea vuota di separazione prima di codice funzione
+	public static Code getCode() {
+		return context().funCode;
 	}
 
-	public static String getCode() {
-		return funCode;
+	// inizia una nuova compilazione nel thread corrente, con un contesto vuoto
+	public static void reset() {
+		context.set(new CompilationContext());
 	}
 }
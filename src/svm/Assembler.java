@@ -0,0 +1,243 @@
+package svm;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Hand-written assembler for the textual format of SVM.g4, producing the
+ * same int[] as SVMParser.assembly() without ANTLR: it scans the bytes of
+ * the assembly (a file, a byte[] or a ByteBuffer) in one pass, with no
+ * tokens. Mnemonics are recognized by their bytes packed into a
+ * long, labels are interned by their bytes (a String is created only the
+ * first time a label is seen) and integers are parsed in place.
+ * It stops at the first error with an IllegalArgumentException, where
+ * SVMParser would report it and recover: SVMParser remains the way to get
+ * all the diagnostics of a malformed file.
+ */
+public class Assembler {
+
+    private static final int NONE = 0, INTEGER = 1, LABEL = 2, INTEGER_OR_LABEL = 3; // operand of an instruction
+
+    // mnemonics (PUSH to LEAVE in SVM.g4) packed as in pack(), in an open-addressing table
+    private static final long[] MNEMONICS = new long[64];
+    private static final int[] OPCODES = new int[64];
+    private static final int[] OPERANDS = new int[64];
+    static {
+      for (int t = SVMParser.PUSH; t <= SVMParser.LEAVE; t++) {
+        String literal = SVMParser.VOCABULARY.getLiteralName(t);
+        byte[] mnemonic = literal.substring(1, literal.length()-1).getBytes(StandardCharsets.US_ASCII);
+        long key = pack(mnemonic, 0, mnemonic.length);
+        int slot = slot(key);
+        while (MNEMONICS[slot] != 0) slot = (slot+1) & (MNEMONICS.length-1);
+        MNEMONICS[slot] = key;
+        OPCODES[slot] = t;
+        OPERANDS[slot] = switch (t) {
+          case SVMParser.PUSH -> INTEGER_OR_LABEL;
+          case SVMParser.BRANCH, SVMParser.BRANCHEQ, SVMParser.BRANCHLESSEQ -> LABEL;
+          case SVMParser.LOADWOFF, SVMParser.LOADFPWOFF, SVMParser.LOADMETHOD, SVMParser.POPN, SVMParser.RETURN,
+               SVMParser.LOADDISPLAY, SVMParser.ENTER, SVMParser.LEAVE -> INTEGER;
+          default -> NONE;
+        };
+      }
+    }
+
+    private final byte[] asm;
+    private final int limit;
+    private int pos;
+    private int line = 1;
+    private final CodeBuffer code = new CodeBuffer();
+
+    // labels interned by their bytes: slots hold 1+ the CodeBuffer id, starts/lengths locate the first occurrence
+    private int[] slots = new int[1024];
+    private int[] starts = new int[512];
+    private int[] lengths = new int[512];
+    private int labels = 0;
+
+    // scanning a byte[] lets the JIT drop most bounds checks, which ByteBuffer.get(int) repeats for every byte
+    private Assembler(byte[] asm, int start, int end) {
+      this.asm = asm;
+      this.pos = start;
+      this.limit = end;
+    }
+
+    public static int[] assemble(Path file) throws IOException {
+      return assemble(Files.readAllBytes(file));
+    }
+
+    public static int[] assemble(byte[] asm) {
+      return assemble(asm, 0, asm.length);
+    }
+
+    // the bytes from position to limit of asm, which is not modified
+    public static int[] assemble(ByteBuffer asm) {
+      if (asm.hasArray()) return assemble(asm.array(), asm.arrayOffset()+asm.position(), asm.arrayOffset()+asm.limit());
+      byte[] bytes = new byte[asm.remaining()]; // e.g. a memory-mapped file, copied in bulk
+      asm.get(asm.position(), bytes);
+      return assemble(bytes);
+    }
+
+    private static int[] assemble(byte[] asm, int start, int end) {
+      Assembler assembler = new Assembler(asm, start, end);
+      assembler.assembly();
+      return assembler.code.toCode();
+    }
+
+    private void assembly() {
+      while (skip()) {
+        if (!isLetter(asm[pos])) throw error("unexpected '"+(char) asm[pos]+"'");
+        int start = pos;
+        word();
+        int slot = mnemonic(start, pos);
+        if (slot < 0) { // label definition
+          int label = label(start, pos);
+          if (!skip() || asm[pos] != ':') throw error("unknown instruction "+text(start, pos));
+          pos++;
+          code.define(label);
+          continue;
+        }
+        code.emit(OPCODES[slot]);
+        int operand = OPERANDS[slot];
+        if (operand == NONE) continue;
+        if (!skip()) throw error("missing operand");
+        if (operand != INTEGER && isLetter(asm[pos])) {
+          int labelStart = pos;
+          word();
+          code.emitLabel(label(labelStart, pos));
+        } else if (operand != LABEL) code.emit(integer());
+        else throw error("label expected");
+      }
+    }
+
+    // skips blanks and comments, returns false at the end of the input
+    private boolean skip() {
+      while (pos < limit) {
+        byte c = asm[pos];
+        if (c == '\n') {
+          line++;
+          pos++;
+        } else if (c == ' ' || c == '\t' || c == '\r') pos++;
+        else if (c == '/' && pos+1 < limit && asm[pos+1] == '*') {
+          int end = pos+2;
+          while (end+1 < limit && !(asm[end] == '*' && asm[end+1] == '/')) {
+            if (asm[end] == '\n') line++;
+            end++;
+          }
+          if (end+1 >= limit) throw error("unterminated comment");
+          pos = end+2;
+        } else return true;
+      }
+      return false;
+    }
+
+    // letters and digits after a letter, as LABEL in SVM.g4
+    private void word() {
+      pos++;
+      while (pos < limit && (isLetter(asm[pos]) || isDigit(asm[pos]))) pos++;
+    }
+
+    // '0' | '-'? [1-9][0-9]*, as INTEGER in SVM.g4
+    private int integer() {
+      int start = pos;
+      boolean negative = asm[pos] == '-';
+      if (negative) pos++;
+      if (pos == limit || !isDigit(asm[pos])) throw error("integer expected");
+      long value = 0;
+      if (asm[pos] == '0' && !negative) pos++;
+      else if (asm[pos] == '0') throw error("integer expected");
+      else
+        while (pos < limit && isDigit(asm[pos])) {
+          value = value*10 + (asm[pos++] - '0');
+          if (value > Integer.MAX_VALUE+1L) throw error("integer out of range "+text(start, pos));
+        }
+      if (pos < limit && (isLetter(asm[pos]) || isDigit(asm[pos]))) throw error("integer expected");
+      value = negative ? -value : value;
+      if (value > Integer.MAX_VALUE) throw error("integer out of range "+text(start, pos));
+      return (int) value;
+    }
+
+    // slot of the mnemonic in start..end, -1 if it is not one
+    private int mnemonic(int start, int end) {
+      if (end-start > 8) return -1;
+      long key = pack(asm, start, end);
+      for (int slot = slot(key); MNEMONICS[slot] != 0; slot = (slot+1) & (MNEMONICS.length-1))
+        if (MNEMONICS[slot] == key) return slot;
+      return -1;
+    }
+
+    // the id in code of the label in start..end
+    private int label(int start, int end) {
+      int hash = hash(start, end);
+      int mask = slots.length-1;
+      for (int slot = hash & mask; slots[slot] != 0; slot = (slot+1) & mask) {
+        int id = slots[slot]-1;
+        if (equal(starts[id], lengths[id], start, end-start)) return id;
+      }
+      int id = code.newLabel(text(start, end));
+      if (id == starts.length) {
+        starts = Arrays.copyOf(starts, id*2);
+        lengths = Arrays.copyOf(lengths, id*2);
+      }
+      starts[id] = start;
+      lengths[id] = end-start;
+      if (++labels*2 > slots.length) rehash();
+      else {
+        int slot = hash & mask;
+        while (slots[slot] != 0) slot = (slot+1) & mask;
+        slots[slot] = id+1;
+      }
+      return id;
+    }
+
+    private void rehash() {
+      slots = new int[slots.length*2];
+      int mask = slots.length-1;
+      for (int id = 0; id < labels; id++) {
+        int slot = hash(starts[id], starts[id]+lengths[id]) & mask;
+        while (slots[slot] != 0) slot = (slot+1) & mask;
+        slots[slot] = id+1;
+      }
+    }
+
+    private int hash(int start, int end) { // FNV-1a
+      int hash = 0x811c9dc5;
+      for (int i = start; i < end; i++) hash = (hash ^ asm[i]) * 0x01000193;
+      return hash;
+    }
+
+    private boolean equal(int a, int aLength, int b, int bLength) {
+      if (aLength != bLength) return false;
+      for (int i = 0; i < aLength; i++) if (asm[a+i] != asm[b+i]) return false;
+      return true;
+    }
+
+    // up to 8 ASCII bytes in a long, never 0 for a non-empty word
+    private static long pack(byte[] bytes, int start, int end) {
+      long key = 0;
+      for (int i = start; i < end; i++) key = key << 8 | (bytes[i] & 0xff);
+      return key;
+    }
+
+    private static int slot(long key) {
+      return (int) ((key * 0x9E3779B97F4A7C15L) >>> 58); // 64 slots
+    }
+
+    private static boolean isLetter(byte c) {
+      return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(byte c) {
+      return c >= '0' && c <= '9';
+    }
+
+    private String text(int start, int end) {
+      return new String(asm, start, end-start, StandardCharsets.US_ASCII);
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException("Line "+line+": "+message);
+    }
+
+}
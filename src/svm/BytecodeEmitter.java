@@ -0,0 +1,93 @@
+package svm;
+
+import java.util.*;
+
+/**
+ * Encodes the textual instructions produced by the code generator straight
+ * into the int[] format executed by ExecuteVM, resolving labels in memory.
+ * It accepts the same instruction set as SVM.g4 but, unlike SVMParser, it
+ * expects the one-instruction-per-line layout of generated code, so it needs
+ * neither a file nor a second lexing/parsing pass.
+ */
+public class BytecodeEmitter {
+
+    private static final Map<String,Integer> OPCODES = new HashMap<>();
+    static {
+      // mnemonics are the literal names of the instruction tokens in SVM.g4 (PUSH to LEAVE)
+      for (int t = SVMParser.PUSH; t <= SVMParser.LEAVE; t++) {
+        String literal = SVMParser.VOCABULARY.getLiteralName(t);
+        OPCODES.put(literal.substring(1, literal.length()-1), t);
+      }
+    }
+
+    private final CodeBuffer code = new CodeBuffer();
+    private final LineTable lines = new LineTable();
+
+    public static int[] assemble(String asm) {
+      return assemble(Arrays.asList(asm.split("\n")));
+    }
+
+    // lines as produced by the code generator, without joining them into a single string
+    public static int[] assemble(Iterable<String> lines) {
+      return assemble(lines, true);
+    }
+
+    // fuse selects the Peephole superinstructions; without it only the plain instruction set is emitted
+    public static int[] assemble(Iterable<String> lines, boolean fuse) {
+      return assemble(lines, fuse, null);
+    }
+
+    // labels, if not null, receives the address of every label (e.g. for ProfilingVM)
+    public static int[] assemble(Iterable<String> lines, boolean fuse, Map<String,Integer> labels) {
+      BytecodeEmitter emitter = emitter(lines, fuse);
+      int[] code = emitter.toCode();
+      if (labels != null) labels.putAll(emitter.labels());
+      return code;
+    }
+
+    // an emitter that has emitted lines, for the code and its labels and line table
+    public static BytecodeEmitter emitter(Iterable<String> lines, boolean fuse) {
+      if (fuse) lines = Peephole.fuse(lines);
+      BytecodeEmitter emitter = new BytecodeEmitter();
+      for (String line : lines) emitter.emit(line);
+      return emitter;
+    }
+
+    public void emit(String line) {
+      line = line.trim();
+      if (line.isEmpty()) return;
+      if (line.startsWith("/*")) { // comment
+        if (LineTable.isMarker(line)) lines.add(code.size(), line);
+        return;
+      }
+      if (line.endsWith(":")) {
+        code.define(line.substring(0, line.length()-1));
+        return;
+      }
+      int space = line.indexOf(' ');
+      String mnemonic = space < 0 ? line : line.substring(0, space);
+      Integer opcode = OPCODES.get(mnemonic);
+      if (opcode == null) throw new IllegalArgumentException("Unknown instruction: "+line);
+      code.emit(opcode);
+      if (space < 0) return;
+      String arg = line.substring(space+1).trim();
+      if (Character.isLetter(arg.charAt(0))) code.emitLabel(arg);
+      else code.emit(Integer.parseInt(arg));
+    }
+
+    // throws IllegalArgumentException for an undefined label
+    public int[] toCode() {
+      return code.toCode();
+    }
+
+    // the address of every label emitted so far, by name
+    public Map<String,Integer> labels() {
+      return code.labels();
+    }
+
+    // ranges of the code emitted so far by source line, from the markers of the code generator
+    public LineTable lines() {
+      return lines;
+    }
+
+}
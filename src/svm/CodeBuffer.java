@@ -0,0 +1,104 @@
+package svm;
+
+import java.util.*;
+
+/**
+ * Bytecode being assembled, shared by BytecodeEmitter and SVMParser: a
+ * growable int[] with labels interned to dense ids. The address of each
+ * label is kept in an int[] indexed by id; a reference to a label that is
+ * already defined is resolved on the spot, and only forward references
+ * are recorded, as (position, id) pairs of two int[], to be patched by
+ * toCode(). Nothing is boxed per instruction or per reference.
+ */
+public class CodeBuffer {
+
+    private static final int UNDEFINED = -1;
+
+    private int[] code = new int[ExecuteVM.CODESIZE];
+    private int size = 0;
+
+    private final Map<String,Integer> ids = new HashMap<>(); // one entry per label
+    private final List<String> names = new ArrayList<>(); // by id
+    private int[] addresses = new int[64]; // by id, UNDEFINED until the label is defined
+
+    private int[] fixupPositions = new int[64]; // forward references
+    private int[] fixupLabels = new int[64];
+    private int fixups = 0;
+
+    public void emit(int v) {
+      if (size == code.length) code = Arrays.copyOf(code, code.length*2);
+      code[size++] = v;
+    }
+
+    // emits the address of label
+    public void emitLabel(String label) {
+      emitLabel(label(label));
+    }
+
+    // emits the address of the label with the given id (see label)
+    public void emitLabel(int id) {
+      if (addresses[id] == UNDEFINED) {
+        if (fixups == fixupPositions.length) {
+          fixupPositions = Arrays.copyOf(fixupPositions, fixups*2);
+          fixupLabels = Arrays.copyOf(fixupLabels, fixups*2);
+        }
+        fixupPositions[fixups] = size;
+        fixupLabels[fixups++] = id;
+      }
+      emit(addresses[id]); // patched in toCode() if still undefined
+    }
+
+    // label is the address of the next instruction
+    public void define(String label) {
+      define(label(label));
+    }
+
+    public void define(int id) {
+      if (addresses[id] != UNDEFINED) throw new IllegalArgumentException("Duplicate label: "+names.get(id));
+      addresses[id] = size;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    // the code, with every reference resolved, in an array of exactly size() words:
+    // the last word can be a 0 operand (e.g. of "ret 0"), so it must not be padded
+    public int[] toCode() {
+      for (int k = 0; k < fixups; k++) {
+        int address = addresses[fixupLabels[k]];
+        if (address == UNDEFINED) throw new IllegalArgumentException("Undefined label: "+names.get(fixupLabels[k]));
+        code[fixupPositions[k]] = address;
+      }
+      fixups = 0;
+      return Arrays.copyOf(code, size);
+    }
+
+    // the address of every label defined so far, by name
+    public Map<String,Integer> labels() {
+      Map<String,Integer> labels = new HashMap<>();
+      for (int id = 0; id < names.size(); id++)
+        if (addresses[id] != UNDEFINED) labels.put(names.get(id), addresses[id]);
+      return labels;
+    }
+
+    // the id of label, interned on its first use
+    public int label(String label) {
+      Integer id = ids.get(label);
+      if (id != null) return id;
+      id = newLabel(label);
+      ids.put(label, id);
+      return id;
+    }
+
+    // a new id for a label, for a caller that interns the labels itself (see Assembler);
+    // name is only used in errors
+    public int newLabel(String name) {
+      int n = names.size();
+      names.add(name);
+      if (n == addresses.length) addresses = Arrays.copyOf(addresses, n*2);
+      addresses[n] = UNDEFINED;
+      return n;
+    }
+
+}
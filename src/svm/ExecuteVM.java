@@ -1,25 +1,104 @@
 package svm;
-public class ExecuteVM {
+
+import java.util.*;
+
+public class ExecuteVM implements VirtualMachine {
     
-    public static final int CODESIZE = 10000;
-    public static final int MEMSIZE = 10000;
+    // sizes in words, configurable with -Dsvm.codesize=..., -Dsvm.memsize=..., -Dsvm.maxmemsize=...
+    public static final int CODESIZE = Integer.getInteger("svm.codesize", 10000); // initial size of code buffers, which grow
+    public static final int MEMSIZE = Integer.getInteger("svm.memsize", 10000); // initial size of stack and heap, which grow
+    public static final int MAXMEMSIZE = Integer.getInteger("svm.maxmemsize", 1 << 26); // limit for stack and heap together
+    public static final boolean GC = Boolean.parseBoolean(System.getProperty("svm.gc", "true")); // -Dsvm.gc=false disables it
+    public static final boolean INLINE_CACHE = Boolean.parseBoolean(System.getProperty("svm.inlinecache", "true")); // of lm (see method)
     
-    private int[] code;
-    private int[] memory = new int[MEMSIZE];
+    // Stack and heap are separate segments of one address space: heap addresses
+    // go up from 0, stack addresses go down from STACKBASE (the address of the
+    // global frame). Since maxMemSize <= STACKBASE the two ranges never overlap.
+    public static final int STACKBASE = 1 << 30;
     
-    private int ip = 0;
-    private int sp = MEMSIZE;
+    int[] code;
+    int[] stack; // address a of the stack segment is stack[a-stackOrigin]
+    int[] heap; // address a of the heap segment is heap[a]
+    int stackOrigin; // address of stack[0]
+    int allocBase = -1; // hp at the first alloc: objects are above, dispatch tables below
     
-    private int hp = 0;       
-    private int fp = MEMSIZE; 
-    private int ra;           
-    private int tm;
+    // whether each stack word, heap word and $tm holds an object pointer:
+    // maintained only by TaggedVM, null (and false) otherwise
+    boolean[] stackRefs;
+    boolean[] heapRefs;
+    boolean tmRef;
+    private int maxMemSize;
+    private int[][] inlineCaches; // of the lm instructions, by address (see method)
+    private GarbageCollector gc = GC ? new GarbageCollector() : null;
+    
+    int ip = 0;
+    int sp; // index in stack of the top of the stack (stack.length if empty)
+    
+    int[] display = new int[8]; // address of the latest frame at each nesting level (see enter)
+    private int[] savedDisplay = new int[64];
+    private int saved = 0;
+    
+    int hp = 0;       
+    int fp = STACKBASE; 
+    int ra;           
+    int tm;
+    
+    private boolean cacheTop; // execute with cpuCachedTop()
+    private LineTable lines; // to locate failures in the source, null if not known
     
     public ExecuteVM(int[] code) {
+      this(code, false);
+    }
+    
+    public ExecuteVM(int[] code, boolean cacheTop) {
+      this(code, cacheTop, MEMSIZE, MAXMEMSIZE);
+    }
+    
+    public ExecuteVM(int[] code, boolean cacheTop, int memSize, int maxMemSize) {
+      if (memSize < 1 || 2L*memSize > maxMemSize || maxMemSize > STACKBASE)
+        throw new IllegalArgumentException("Invalid memory sizes: "+memSize+" initial, "+maxMemSize+" maximum");
       this.code = code;
+      this.cacheTop = cacheTop;
+      this.maxMemSize = maxMemSize;
+      inlineCaches = INLINE_CACHE ? new int[code.length][] : null;
+      stack = new int[memSize];
+      heap = new int[memSize];
+      stackOrigin = STACKBASE - memSize;
+      sp = memSize;
     }
     
+    // collector statistics, null if the collector is disabled
+    public GarbageCollector gc() {
+      return gc;
+    }
+    
+    // with a line table, a failing instruction throws an VMException locating it in the
+    // source (wrapping the exception it threw), instead of the exception itself
+    public void setLines(LineTable lines) {
+      this.lines = lines;
+    }
+    
+    // failures are located by catching them outside the dispatch loop, which is the same with or without a LineTable
+    @Override
     public void cpu() {
+      try {
+        execute();
+      } catch (RuntimeException e) {
+        throw located(e, ip-1);
+      }
+    }
+    
+    // e thrown by the instruction at address (or by one of its operands), located by the line table if any
+    RuntimeException located(RuntimeException e, int address) {
+      return lines == null || e instanceof VMException ? e : new VMException(e, address, lines);
+    }
+    
+    // the dispatch loop, from ip to halt; ip is past the opcode of the instruction being executed
+    void execute() {
+      if (cacheTop) {
+        cpuCachedTop();
+        return;
+      }
       while ( true ) {
         int bytecode = code[ip++]; // fetch
         int v1,v2;
@@ -53,11 +132,11 @@ public class ExecuteVM {
             break;
           case SVMParser.STOREW : //
             address = pop();
-            memory[address] = pop();    
+            store(address, pop());    
             break;
           case SVMParser.LOADW : //
             address = pop();
-            push(memory[address]);
+            push(load(address));
             break;
           case SVMParser.BRANCH : 
             address = code[ip];
@@ -99,7 +178,7 @@ public class ExecuteVM {
             fp=pop();
             break;
          case SVMParser.COPYFP : //
-            fp=sp;
+            fp=stackOrigin+sp;
             break;
          case SVMParser.STOREHP : //
             hp=pop();
@@ -108,20 +187,393 @@ public class ExecuteVM {
             push(hp);
             break;
          case SVMParser.PRINT :
-            System.out.println((sp<MEMSIZE)?memory[sp]:"Empty stack!");
+            System.out.println((sp<stack.length)?stack[sp]:"Empty stack!");
             break;
          case SVMParser.HALT :
             return;
+         case SVMParser.LOADWOFF :
+            address = pop() + code[ip++];
+            push(load(address));
+            break;
+         case SVMParser.LOADFPWOFF :
+            address = fp + code[ip++];
+            push(load(address));
+            break;
+         case SVMParser.INCHP :
+            hp++;
+            break;
+         case SVMParser.DUP :
+            tm = stack[sp];
+            push(tm);
+            break;
+         case SVMParser.ALLOC :
+            alloc();
+            break;
+         case SVMParser.JUMP :
+            ip = pop();
+            break;
+         case SVMParser.LOADMETHOD :
+            push(method(pop(), ip-1));
+            ip++;
+            break;
+         case SVMParser.POPN :
+            sp += code[ip++];
+            if (sp > stack.length) throw underflow(sp);
+            break;
+         case SVMParser.RETURN :
+            ret(code[ip]);
+            break;
+         case SVMParser.LOADDISPLAY :
+            push(display[code[ip++]]);
+            break;
+         case SVMParser.ENTER :
+            enter(code[ip++], fp);
+            break;
+         case SVMParser.LEAVE :
+            leave(code[ip++]);
+            break;
         }
       }
     } 
     
-    private int pop() {
-      return memory[sp++];
+    // Same semantics as the loop in cpu(), but the top of the stack is kept in
+    // the local variable tos: while the stack is not empty, tos is the value of
+    // stack[sp] and stack[sp] itself may be stale (every other slot is up to
+    // date), so the stack is only written when a value is pushed over it.
+    private void cpuCachedTop() {
+      int[] code = this.code;
+      int[] stack = this.stack; // replaced when the stack grows
+      int ip = this.ip;
+      int sp = this.sp;
+      int tos = 0;
+      try {
+        while ( true ) {
+          int bytecode = code[ip++]; // fetch
+          int v1,v2;
+          int address;
+          switch ( bytecode ) {
+            case SVMParser.PUSH:
+              if (sp == 0) { sp = growStack(sp); stack = this.stack; }
+              if (sp < stack.length) stack[sp] = tos;
+              tos = code[ip++];
+              sp--;
+              break;
+            case SVMParser.POP:
+              if (++sp < stack.length) tos = stack[sp]; else if (sp > stack.length) throw underflow(sp);
+              break;
+            case SVMParser.ADD :
+              tos = stack[++sp] + tos;
+              break;
+            case SVMParser.MULT :
+              tos = stack[++sp] * tos;
+              break;
+            case SVMParser.DIV :
+              tos = stack[++sp] / tos;
+              break;
+            case SVMParser.SUB :
+              tos = stack[++sp] - tos;
+              break;
+            case SVMParser.STOREW :
+              address = tos;
+              v1 = stack[sp+1];
+              store(address, v1);
+              sp += 2;
+              if (sp < stack.length) tos = stack[sp]; else if (sp > stack.length) throw underflow(sp);
+              break;
+            case SVMParser.LOADW :
+              if (tos != stackOrigin+sp) tos = load(tos); // else it loads the top of the stack itself, i.e. tos
+              break;
+            case SVMParser.BRANCH : 
+              ip = code[ip];
+              break;
+            case SVMParser.BRANCHEQ :
+              address = code[ip++];
+              v1 = tos;
+              v2 = stack[sp+1];
+              sp += 2;
+              if (sp < stack.length) tos = stack[sp]; else if (sp > stack.length) throw underflow(sp);
+              if (v2 == v1) ip = address;
+              break;
+            case SVMParser.BRANCHLESSEQ :
+              address = code[ip++];
+              v1 = tos;
+              v2 = stack[sp+1];
+              sp += 2;
+              if (sp < stack.length) tos = stack[sp]; else if (sp > stack.length) throw underflow(sp);
+              if (v2 <= v1) ip = address;
+              break;
+            case SVMParser.JS :
+              ra = ip;
+              ip = tos;
+              if (++sp < stack.length) tos = stack[sp]; else if (sp > stack.length) throw underflow(sp);
+              break;
+           case SVMParser.STORERA :
+              ra = tos;
+              if (++sp < stack.length) tos = stack[sp]; else if (sp > stack.length) throw underflow(sp);
+              break;
+           case SVMParser.LOADRA :
+              if (sp == 0) { sp = growStack(sp); stack = this.stack; }
+              if (sp < stack.length) stack[sp] = tos;
+              tos = ra;
+              sp--;
+              break;
+           case SVMParser.STORETM : 
+              tm = tos;
+              if (++sp < stack.length) tos = stack[sp]; else if (sp > stack.length) throw underflow(sp);
+              break;
+           case SVMParser.LOADTM : 
+              if (sp == 0) { sp = growStack(sp); stack = this.stack; }
+              if (sp < stack.length) stack[sp] = tos;
+              tos = tm;
+              sp--;
+              break;
+           case SVMParser.LOADFP :
+              if (sp == 0) { sp = growStack(sp); stack = this.stack; }
+              if (sp < stack.length) stack[sp] = tos;
+              tos = fp;
+              sp--;
+              break;
+           case SVMParser.STOREFP :
+              fp = tos;
+              if (++sp < stack.length) tos = stack[sp]; else if (sp > stack.length) throw underflow(sp);
+              break;
+           case SVMParser.COPYFP :
+              fp = stackOrigin + sp;
+              break;
+           case SVMParser.STOREHP :
+              hp = tos;
+              if (++sp < stack.length) tos = stack[sp]; else if (sp > stack.length) throw underflow(sp);
+              break;
+           case SVMParser.LOADHP :
+              if (sp == 0) { sp = growStack(sp); stack = this.stack; }
+              if (sp < stack.length) stack[sp] = tos;
+              tos = hp;
+              sp--;
+              break;
+           case SVMParser.PRINT :
+              System.out.println((sp<stack.length)?tos:"Empty stack!");
+              break;
+           case SVMParser.HALT :
+              if (sp < stack.length) stack[sp] = tos; // leave the machine state as cpu() does
+              this.ip = ip;
+              this.sp = sp;
+              return;
+           case SVMParser.LOADWOFF :
+              address = tos + code[ip++];
+              if (address != stackOrigin+sp) tos = load(address);
+              break;
+           case SVMParser.LOADFPWOFF :
+              address = fp + code[ip++];
+              v1 = (address == stackOrigin+sp) ? tos : load(address);
+              if (sp == 0) { sp = growStack(sp); stack = this.stack; }
+              if (sp < stack.length) stack[sp] = tos;
+              tos = v1;
+              sp--;
+              break;
+           case SVMParser.INCHP :
+              hp++;
+              break;
+           case SVMParser.DUP :
+              tm = tos;
+              if (sp == 0) { sp = growStack(sp); stack = this.stack; }
+              stack[sp] = tos;
+              sp--;
+              break;
+           case SVMParser.ALLOC :
+              stack[sp] = tos; // the collector scans the stack
+              this.sp = sp;
+              alloc();
+              sp = this.sp;
+              stack = this.stack;
+              tos = stack[sp];
+              break;
+           case SVMParser.JUMP :
+              ip = tos;
+              if (++sp < stack.length) tos = stack[sp]; else if (sp > stack.length) throw underflow(sp);
+              break;
+           case SVMParser.LOADMETHOD :
+              tos = method(tos, ip-1);
+              ip++;
+              break;
+           case SVMParser.POPN :
+              sp += code[ip++];
+              if (sp < stack.length) tos = stack[sp]; else if (sp > stack.length) throw underflow(sp);
+              break;
+           case SVMParser.RETURN : // as ret(), with the result (tos) left in tos
+              tm = tos;
+              ra = stack[fp-1-stackOrigin];
+              sp = fp+code[ip]+1-stackOrigin;
+              fp = stack[sp];
+              ip = ra;
+              break;
+           case SVMParser.LOADDISPLAY :
+              if (sp == 0) { sp = growStack(sp); stack = this.stack; }
+              if (sp < stack.length) stack[sp] = tos;
+              tos = display[code[ip++]];
+              sp--;
+              break;
+           case SVMParser.ENTER :
+              enter(code[ip++], fp);
+              break;
+           case SVMParser.LEAVE :
+              leave(code[ip++]);
+              break;
+          }
+        }
+      } catch (RuntimeException e) {
+        this.ip = ip; // for located(), in cpu()
+        throw e;
+      }
+    }
+
+    // popping from an empty stack fails as stack[sp++] would in cpu(), also in the other engines
+    ArrayIndexOutOfBoundsException underflow(int sp) {
+      return new ArrayIndexOutOfBoundsException("Index "+(sp-1)+" out of bounds for length "+stack.length);
+    }
+
+    int pop() {
+      return stack[sp++];
+    }
+    
+    // Epilogue of a function with pars parameters, the result on top of the stack:
+    // $tm = result; $ra = return address (at $fp-1); the frame, up to the Control
+    // Link (at $fp+pars+1), is removed and $fp restored; the result is pushed
+    // and execution continues at $ra.
+    void ret(int pars) {
+      tm = stack[sp];
+      ra = stack[fp-1-stackOrigin];
+      sp = fp+pars+1-stackOrigin;
+      fp = stack[sp];
+      stack[sp] = tm;
+      ip = ra;
+    }
+    
+    // Display for the code generated with CodeGenerationASTVisitor.display: enter k,
+    // at the start of a function whose body is at nesting level k, makes its frame
+    // the latest one at that level, and leave k, before it returns, restores the
+    // previous one (kept in a stack of the VM, so frames keep their layout).
+    // Without function values the latest frame at a level is that of the static
+    // chain, so "ld k" reaches it in one instruction whatever the nesting depth.
+    void enter(int level, int fp) {
+      if (level >= display.length) display = Arrays.copyOf(display, 2*level);
+      if (saved == savedDisplay.length) savedDisplay = Arrays.copyOf(savedDisplay, 2*saved);
+      savedDisplay[saved++] = display[level];
+      display[level] = fp;
+    }
+
+    void leave(int level) {
+      display[level] = savedDisplay[--saved];
+    }
+    
+    void push(int v) {
+      if (sp == 0) sp = growStack(sp);
+      stack[--sp] = v;
+    }
+    
+    // Allocates an object: pops its dispatch pointer and then its fields (the
+    // last one first), as pushed by the code for "new", and pushes its address.
+    // The number of fields is read from the dispatch table; see GarbageCollector
+    // for the layout. If the heap is full it is first collected, then grown.
+    void alloc() {
+      if (allocBase < 0) allocBase = hp;
+      int fields = load(stack[sp]-1);
+      int size = fields+2;
+      int start = (gc != null) ? gc.reuseGap(heap, size) : -1;
+      if (start < 0 && hp+size > heap.length && gc != null) {
+        gc.collect(this);
+        start = gc.reuseGap(heap, size);
+        // keep a quarter of the heap free, so that collections are not too frequent
+        if (4L*(allocBase+gc.liveWords+size) > 3L*heap.length && heap.length < (long) maxMemSize-stack.length)
+          growHeap(heap.length);
+      }
+      if (start < 0) {
+        if (hp+size > heap.length) growHeap(hp+size-1);
+        start = hp;
+        hp += size;
+      }
+      int dp = pop();
+      heap[start] = fields;
+      for (int f = fields-1; f >= 0; f--) {
+        if (heapRefs != null) heapRefs[start+fields-f] = stackRefs[sp];
+        heap[start+fields-f] = pop();
+      }
+      int obj = start+fields+1;
+      heap[obj] = dp;
+      push(obj);
+      if (heapRefs != null) {
+        heapRefs[start] = heapRefs[obj] = false; // a reused gap may hold stale bits
+        stackRefs[sp] = true;
+      }
+    }
+    
+    private static final int CACHE_ENTRIES = 4;
+    
+    // Address of the method of object obj at the offset given by the lm instruction
+    // at address site. Dispatch tables are written before the first alloc and never
+    // move, so the address found for a dispatch pointer is kept in the inline cache
+    // of the site: up to CACHE_ENTRIES (dispatch pointer, address) pairs, after
+    // which the site is megamorphic and reads the dispatch table every time.
+    int method(int obj, int site) {
+      int dp = load(obj);
+      if (inlineCaches == null) return load(dp+code[site+1]);
+      int[] cache = inlineCaches[site];
+      if (cache == null) {
+        cache = inlineCaches[site] = new int[2*CACHE_ENTRIES];
+        Arrays.fill(cache, -1);
+      }
+      for (int i = 0; i < cache.length; i += 2) {
+        if (cache[i] == dp) return cache[i+1];
+        if (cache[i] < 0) {
+          cache[i] = dp;
+          return cache[i+1] = load(dp+code[site+1]);
+        }
+      }
+      return load(dp+code[site+1]);
+    }
+    
+    int load(int address) {
+      if (address >= stackOrigin) return stack[address-stackOrigin];
+      if (address < heap.length) return heap[address];
+      return 0; // heap word never written
+    }
+    
+    void store(int address, int v) {
+      if (address >= stackOrigin) {
+        stack[address-stackOrigin] = v;
+        return;
+      }
+      if (address >= heap.length) growHeap(address);
+      heap[address] = v;
+    }
+    
+    // doubles the stack (within maxMemSize) keeping its addresses,
+    // and returns the index of the top of the stack in the new array
+    int growStack(int sp) {
+      int size = (int) Math.min(2L*stack.length, (long) maxMemSize-heap.length);
+      if (size <= stack.length) throw collision(stack.length+1L, heap.length);
+      int[] grown = new int[size];
+      int delta = size-stack.length;
+      System.arraycopy(stack, 0, grown, delta, stack.length);
+      stack = grown;
+      if (stackRefs != null) {
+        boolean[] refs = new boolean[size];
+        System.arraycopy(stackRefs, 0, refs, delta, stackRefs.length);
+        stackRefs = refs;
+      }
+      stackOrigin -= delta;
+      return sp+delta;
+    }
+    
+    private void growHeap(int address) {
+      long needed = address+1L;
+      if (needed > (long) maxMemSize-stack.length) throw collision(stack.length, needed);
+      heap = Arrays.copyOf(heap, (int) Math.min(Math.max(2L*heap.length, needed), (long) maxMemSize-stack.length));
+      if (heapRefs != null) heapRefs = Arrays.copyOf(heapRefs, heap.length);
     }
     
-    private void push(int v) {
-      memory[--sp] = v;
+    private MemoryException collision(long stackSize, long heapSize) {
+      return new MemoryException("Stack and heap collide: "+stackSize+" stack words and "+heapSize
+          +" heap words exceed the memory size of "+maxMemSize+" words (see -Dsvm.maxmemsize)");
     }
     
 }
\ No newline at end of file
@@ -0,0 +1,179 @@
+package svm;
+
+import java.util.*;
+
+/**
+ * Mark-compact collector for the objects allocated by the alloc instruction.
+ *
+ * Heap layout: the dispatch tables written by the class declarations occupy
+ * [0, allocBase), objects occupy [allocBase, hp). An object with n fields
+ * takes n+2 words:
+ *
+ *   header  n           (a negative header -g marks a free gap of g words)
+ *   field   n-1         at address obj-n
+ *   ...
+ *   field   0           at address obj-1
+ *   dispatch pointer    at address obj (the object pointer)
+ *
+ * and the dispatch table it points to is preceded by the number of fields
+ * (at dp-1) and by a reference flag for every field (field i at dp-2-i), so
+ * object fields are traced precisely. Stack words and $tm are precise roots
+ * only when they are tagged (TaggedVM); otherwise any of them holding the
+ * address of an object keeps that object alive and also pins it, since it
+ * cannot be told apart from an integer to be updated.
+ * Live objects are slid down towards allocBase; pinned objects stay where
+ * they are and the space left before them becomes a gap, reused by alloc
+ * (first fit) until the next collection.
+ */
+public class GarbageCollector {
+
+    public int collections = 0;
+    public long reclaimedWords = 0;
+    public long totalPauseNanos = 0;
+    public long maxPauseNanos = 0;
+    public int liveWords = 0; // after the last collection
+
+    private int[] gapStart = new int[16];
+    private int[] gapSize = new int[16];
+    private int gaps = 0;
+
+    // start of a gap of at least size words now taken by the caller, -1 if none
+    int reuseGap(int[] heap, int size) {
+      for (int g = 0; g < gaps; g++) {
+        if (gapSize[g] < size) continue;
+        int start = gapStart[g];
+        gapStart[g] += size;
+        gapSize[g] -= size;
+        if (gapSize[g] > 0) heap[gapStart[g]] = -gapSize[g];
+        else {
+          gaps--;
+          gapStart[g] = gapStart[gaps];
+          gapSize[g] = gapSize[gaps];
+        }
+        return start;
+      }
+      return -1;
+    }
+
+    public void collect(ExecuteVM vm) {
+      long start = System.nanoTime();
+      int[] heap = vm.heap;
+      int base = vm.allocBase;
+      int hp = vm.hp;
+      int size = hp - base;
+
+      // object pointers in address order
+      BitSet isObject = new BitSet(size);
+      int[] objects = new int[16];
+      int count = 0;
+      for (int a = base; a < hp; ) {
+        if (heap[a] < 0) {
+          a -= heap[a];
+          continue;
+        }
+        int obj = a + 1 + heap[a];
+        if (count == objects.length) objects = Arrays.copyOf(objects, 2*count);
+        objects[count++] = obj;
+        isObject.set(obj - base);
+        a = obj + 1;
+      }
+
+      // mark from the roots, pinning the objects they reference if untagged
+      boolean tagged = vm.stackRefs != null;
+      BitSet marked = new BitSet(size);
+      BitSet pinned = new BitSet(size);
+      int[] work = new int[16];
+      int pending = 0;
+      for (int i = vm.sp; i <= vm.stack.length; i++) {
+        if (tagged && !((i < vm.stack.length) ? vm.stackRefs[i] : vm.tmRef)) continue;
+        int v = (i < vm.stack.length) ? vm.stack[i] : vm.tm;
+        if (v >= base && v < hp && isObject.get(v - base)) {
+          if (!tagged) pinned.set(v - base);
+          if (!marked.get(v - base)) {
+            marked.set(v - base);
+            if (pending == work.length) work = Arrays.copyOf(work, 2*pending);
+            work[pending++] = v;
+          }
+        }
+      }
+      while (pending > 0) {
+        int obj = work[--pending];
+        int dp = heap[obj];
+        for (int f = 0; f < heap[dp-1]; f++) {
+          int v = heap[obj-1-f];
+          if (heap[dp-2-f] != 0 && v >= base && v < hp && isObject.get(v - base) && !marked.get(v - base)) {
+            marked.set(v - base);
+            if (pending == work.length) work = Arrays.copyOf(work, 2*pending);
+            work[pending++] = v;
+          }
+        }
+      }
+
+      // new address of every live object
+      int[] forward = new int[size];
+      int free = base;
+      for (int k = 0; k < count; k++) {
+        int obj = objects[k];
+        if (!marked.get(obj - base)) continue;
+        int fields = heap[heap[obj]-1];
+        if (pinned.get(obj - base)) {
+          forward[obj - base] = obj;
+          free = obj + 1;
+        } else {
+          forward[obj - base] = free + 1 + fields;
+          free += fields + 2;
+        }
+      }
+
+      // update the roots, if precise, and the reference fields of live objects, then slide them
+      if (tagged) {
+        for (int i = vm.sp; i < vm.stack.length; i++) {
+          int v = vm.stack[i];
+          if (vm.stackRefs[i] && v >= base && v < hp && isObject.get(v - base)) vm.stack[i] = forward[v - base];
+        }
+        if (vm.tmRef && vm.tm >= base && vm.tm < hp && isObject.get(vm.tm - base)) vm.tm = forward[vm.tm - base];
+      }
+      for (int k = 0; k < count; k++) {
+        int obj = objects[k];
+        if (!marked.get(obj - base)) continue;
+        int dp = heap[obj];
+        for (int f = 0; f < heap[dp-1]; f++) {
+          int v = heap[obj-1-f];
+          if (heap[dp-2-f] != 0 && v >= base && v < hp && isObject.get(v - base))
+            heap[obj-1-f] = forward[v - base];
+        }
+      }
+      free = base;
+      gaps = 0;
+      liveWords = 0;
+      for (int k = 0; k < count; k++) {
+        int obj = objects[k];
+        if (!marked.get(obj - base)) continue;
+        int fields = heap[heap[obj]-1];
+        int from = obj - fields - 1;
+        int to = forward[obj - base] - fields - 1;
+        if (from != to) {
+          System.arraycopy(heap, from, heap, to, fields + 2);
+          if (tagged) System.arraycopy(vm.heapRefs, from, vm.heapRefs, to, fields + 2);
+        } else if (free < from) { // gap before a pinned object
+          heap[free] = -(from - free);
+          if (gaps == gapStart.length) {
+            gapStart = Arrays.copyOf(gapStart, 2*gaps);
+            gapSize = Arrays.copyOf(gapSize, 2*gaps);
+          }
+          gapStart[gaps] = free;
+          gapSize[gaps++] = from - free;
+        }
+        free = to + fields + 2;
+        liveWords += fields + 2;
+      }
+
+      vm.hp = free;
+      collections++;
+      reclaimedWords += size - liveWords;
+      long pause = System.nanoTime() - start;
+      totalPauseNanos += pause;
+      maxPauseNanos = Math.max(maxPauseNanos, pause);
+    }
+
+}
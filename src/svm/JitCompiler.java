@@ -0,0 +1,728 @@
+package svm;
+
+import java.lang.invoke.*;
+import java.util.*;
+
+/**
+ * Translates SVM bytecode into a JVM class with a single method
+ *
+ *   static int run(ExecuteVM vm)
+ *
+ * executing the program from vm.ip on the state of vm, and loads it as a
+ * hidden class. The registers are kept in JVM local variables, the stack and
+ * the heap are those of vm. Direct branches become JVM branches; the targets
+ * of indirect jumps (js, jp) are the instructions whose address is pushed by
+ * the program or follows a js, and are reached through a lookupswitch at the
+ * start of the method, unless a js follows the push of its target. If js or jp
+ * jump anywhere else, run stores the registers in vm and returns the address
+ * to continue from in the interpreter; it returns -1 on halt.
+ *
+ * The class file is written directly, with version 49 so that no stack map
+ * frames are needed.
+ */
+public class JitCompiler {
+
+    // HotSpot does not compile methods with more bytes of code than this
+    // (-XX:-DontCompileHugeMethods), so they would run slower than ExecuteVM
+    static final int HUGE = 8000;
+
+    private static final Map<int[], MethodHandle> compiled = new WeakHashMap<>();
+
+    // JVM local variables, the most used first (0-3 have one byte instructions)
+    private static final int VM = 0, STACK = 1, SP = 2, ORIGIN = 3, FP = 4, HP = 5, RA = 6, TM = 7, IP = 8;
+
+    // compiled program, shared by the VMs executing the same code array; null
+    // if it cannot be compiled (e.g. too large), so it has to be interpreted
+    static synchronized MethodHandle compile(int[] code) {
+      if (compiled.containsKey(code)) return compiled.get(code);
+      MethodHandle run = null;
+      byte[] classFile = new JitCompiler(code).translate();
+      if (classFile != null) {
+        try {
+          MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+          run = lookup.findStatic(lookup.lookupClass(), "run", MethodType.methodType(int.class, ExecuteVM.class));
+        } catch (ReflectiveOperationException | LinkageError e) {
+          run = null;
+        }
+      }
+      compiled.put(code, run);
+      return run;
+    }
+
+    private final int[] code;
+    private final int length;
+    private final boolean[] instruction; // starts of instructions
+    private final TreeSet<Integer> indirect = new TreeSet<>(); // targets of js
+    private final boolean[] leader; // starts of basic blocks
+
+    private final ClassFile cf = new ClassFile();
+    private final ClassFile.Code out = cf.code;
+
+    private JitCompiler(int[] code) {
+      this.code = code;
+      length = code.length;
+      instruction = new boolean[length+1];
+      leader = new boolean[length+1];
+    }
+
+    private byte[] translate() {
+      // instructions, indirect and direct targets
+      for (int ip = 0; ip < length; ip += ThreadedVM.hasOperand(code[ip]) ? 2 : 1) {
+        instruction[ip] = true;
+        if (ThreadedVM.hasOperand(code[ip]) && ip+1 >= length) return null;
+      }
+      instruction[length] = true;
+      indirect.add(0);
+      for (int ip = 0; ip < length; ip++) {
+        if (!instruction[ip]) continue;
+        switch (code[ip]) {
+          case SVMParser.PUSH:
+            if (code[ip+1] >= 0 && code[ip+1] < length && instruction[code[ip+1]]) indirect.add(code[ip+1]);
+            break;
+          case SVMParser.BRANCH: case SVMParser.BRANCHEQ: case SVMParser.BRANCHLESSEQ:
+            if (code[ip+1] < 0 || code[ip+1] > length || !instruction[code[ip+1]]) return null;
+            leader[code[ip+1]] = true;
+            leader[ip+2] = true;
+            break;
+          case SVMParser.JS:
+            indirect.add(ip+1);
+            break;
+          case SVMParser.HALT: case SVMParser.ALLOC: case SVMParser.JUMP:
+            leader[ip+1] = true;
+            break;
+          case SVMParser.RETURN:
+            leader[ip+2] = true;
+            break;
+        }
+      }
+      for (int target : indirect) leader[target] = true;
+
+      int dispatch = out.newLabel();
+      int fallback = out.newLabel();
+      int[] labels = new int[length+1];
+      for (int ip = 0; ip <= length; ip++) if (leader[ip]) labels[ip] = out.newLabel();
+
+      // registers from vm
+      for (String field : new String[] {"sp", "stackOrigin", "fp", "hp", "ra", "tm", "ip"})
+        loadField(field);
+      loadArrays();
+
+      // before the code, so that every js is a backward branch: HotSpot counts
+      // these (not switches) to compile the method while it is running (OSR)
+      out.bind(dispatch);
+      out.var(ClassFile.ILOAD, IP);
+      int[] keys = new int[indirect.size()];
+      int[] targets = new int[keys.length];
+      int k = 0;
+      for (int target : indirect) {
+        keys[k] = target;
+        targets[k++] = labels[target];
+      }
+      out.lookupSwitch(fallback, keys, targets);
+
+      for (int ip = 0; ip < length; ip += ThreadedVM.hasOperand(code[ip]) ? 2 : 1) {
+        if (leader[ip]) {
+          out.bind(labels[ip]);
+          reserve(ip);
+        }
+        int arg = ThreadedVM.hasOperand(code[ip]) ? code[ip+1] : 0;
+        int next = ip + (ThreadedVM.hasOperand(code[ip]) ? 2 : 1);
+        switch (code[ip]) {
+          case SVMParser.PUSH:
+            if (directCall(ip)) break;
+            push(() -> out.iconst(arg));
+            break;
+          case SVMParser.POP: // stack[sp] is read and dropped: an empty stack fails as in ExecuteVM
+            top(0);
+            out.op(ClassFile.POP);
+            out.iinc(SP, 1);
+            break;
+          case SVMParser.ADD:
+            binary(ClassFile.IADD);
+            break;
+          case SVMParser.SUB:
+            binary(ClassFile.ISUB);
+            break;
+          case SVMParser.MULT:
+            binary(ClassFile.IMUL);
+            break;
+          case SVMParser.DIV:
+            binary(ClassFile.IDIV);
+            break;
+          case SVMParser.STOREW: // vm.store(stack[sp], stack[sp+1])
+            out.var(ClassFile.ALOAD, VM);
+            top(0);
+            top(1);
+            out.invoke(ClassFile.INVOKEVIRTUAL, "svm/ExecuteVM", "store", "(II)V");
+            out.iinc(SP, 2);
+            break;
+          case SVMParser.LOADW: // stack[sp] = vm.load(stack[sp])
+            replaceTop(() -> {});
+            break;
+          case SVMParser.BRANCH:
+            out.jump(ClassFile.GOTO, labels[arg]);
+            break;
+          case SVMParser.BRANCHEQ:
+            compareAndBranch(ClassFile.IF_ICMPEQ, labels[arg]);
+            break;
+          case SVMParser.BRANCHLESSEQ:
+            compareAndBranch(ClassFile.IF_ICMPLE, labels[arg]);
+            break;
+          case SVMParser.JS:
+            if (ip >= 2 && instruction[ip-2] && directCall(ip-2)) {
+              out.iconst(next);
+              out.var(ClassFile.ISTORE, RA);
+              out.jump(ClassFile.GOTO, labels[code[ip-1]]);
+              break;
+            }
+            popTo(IP);
+            out.iconst(next);
+            out.var(ClassFile.ISTORE, RA);
+            out.jump(ClassFile.GOTO, dispatch);
+            break;
+          case SVMParser.JUMP:
+            popTo(IP);
+            out.jump(ClassFile.GOTO, dispatch);
+            break;
+          case SVMParser.STORERA:
+            popTo(RA);
+            break;
+          case SVMParser.LOADRA:
+            push(() -> out.var(ClassFile.ILOAD, RA));
+            break;
+          case SVMParser.STORETM:
+            popTo(TM);
+            break;
+          case SVMParser.LOADTM:
+            push(() -> out.var(ClassFile.ILOAD, TM));
+            break;
+          case SVMParser.LOADFP:
+            push(() -> out.var(ClassFile.ILOAD, FP));
+            break;
+          case SVMParser.STOREFP:
+            popTo(FP);
+            break;
+          case SVMParser.COPYFP:
+            out.var(ClassFile.ILOAD, ORIGIN);
+            out.var(ClassFile.ILOAD, SP);
+            out.op(ClassFile.IADD);
+            out.var(ClassFile.ISTORE, FP);
+            break;
+          case SVMParser.STOREHP:
+            popTo(HP);
+            break;
+          case SVMParser.LOADHP:
+            push(() -> out.var(ClassFile.ILOAD, HP));
+            break;
+          case SVMParser.PRINT:
+            out.var(ClassFile.ALOAD, STACK);
+            out.var(ClassFile.ILOAD, SP);
+            out.invoke(ClassFile.INVOKESTATIC, "svm/JitVM", "print", "([II)V");
+            break;
+          case SVMParser.HALT:
+            storeRegisters(next);
+            out.iconst(-1);
+            out.op(ClassFile.IRETURN);
+            break;
+          case SVMParser.LOADWOFF: // stack[sp] = vm.load(stack[sp]+arg)
+            replaceTop(() -> {
+              out.iconst(arg);
+              out.op(ClassFile.IADD);
+            });
+            break;
+          case SVMParser.LOADFPWOFF: // push JitVM.load(vm, stack, origin, fp+arg)
+            push(() -> {
+              out.var(ClassFile.ALOAD, VM);
+              out.var(ClassFile.ALOAD, STACK);
+              out.var(ClassFile.ILOAD, ORIGIN);
+              out.var(ClassFile.ILOAD, FP);
+              out.iconst(arg);
+              out.op(ClassFile.IADD);
+              out.invoke(ClassFile.INVOKESTATIC, "svm/JitVM", "load", "(Lsvm/ExecuteVM;[III)I");
+            });
+            break;
+          case SVMParser.LOADMETHOD: // stack[sp] = vm.method(stack[sp], ip)
+            out.var(ClassFile.ALOAD, STACK);
+            out.var(ClassFile.ILOAD, SP);
+            out.var(ClassFile.ALOAD, VM);
+            top(0);
+            out.iconst(ip);
+            out.invoke(ClassFile.INVOKEVIRTUAL, "svm/ExecuteVM", "method", "(II)I");
+            out.op(ClassFile.IASTORE);
+            break;
+          case SVMParser.INCHP:
+            out.iinc(HP, 1);
+            break;
+          case SVMParser.DUP:
+            top(0);
+            out.var(ClassFile.ISTORE, TM);
+            push(() -> out.var(ClassFile.ILOAD, TM));
+            break;
+          case SVMParser.POPN:
+            if (arg > 0) {
+              top(arg-1);
+              out.op(ClassFile.POP);
+            }
+            add(SP, arg);
+            break;
+          case SVMParser.RETURN: // as ExecuteVM.ret(arg)
+            top(0);
+            out.var(ClassFile.ISTORE, TM);
+            out.var(ClassFile.ALOAD, STACK);
+            out.var(ClassFile.ILOAD, FP);
+            out.var(ClassFile.ILOAD, ORIGIN);
+            out.op(ClassFile.ISUB);
+            out.iconst(1);
+            out.op(ClassFile.ISUB);
+            out.op(ClassFile.IALOAD);
+            out.var(ClassFile.ISTORE, IP); // ra
+            out.var(ClassFile.ILOAD, FP);
+            out.var(ClassFile.ILOAD, ORIGIN);
+            out.op(ClassFile.ISUB);
+            out.iconst(arg+1);
+            out.op(ClassFile.IADD);
+            out.var(ClassFile.ISTORE, SP);
+            top(0);
+            out.var(ClassFile.ISTORE, FP);
+            out.var(ClassFile.ALOAD, STACK);
+            out.var(ClassFile.ILOAD, SP);
+            out.var(ClassFile.ILOAD, TM);
+            out.op(ClassFile.IASTORE);
+            out.jump(ClassFile.GOTO, dispatch);
+            break;
+          case SVMParser.LOADDISPLAY: // push vm.display[arg]
+            push(() -> {
+              out.var(ClassFile.ALOAD, VM);
+              out.field(ClassFile.GETFIELD, "display", "[I");
+              out.iconst(arg);
+              out.op(ClassFile.IALOAD);
+            });
+            break;
+          case SVMParser.ENTER:
+            out.var(ClassFile.ALOAD, VM);
+            out.iconst(arg);
+            out.var(ClassFile.ILOAD, FP);
+            out.invoke(ClassFile.INVOKEVIRTUAL, "svm/ExecuteVM", "enter", "(II)V");
+            break;
+          case SVMParser.LEAVE:
+            out.var(ClassFile.ALOAD, VM);
+            out.iconst(arg);
+            out.invoke(ClassFile.INVOKEVIRTUAL, "svm/ExecuteVM", "leave", "(I)V");
+            break;
+          case SVMParser.ALLOC: // the collector reads sp, hp and tm and may move the stack
+            storeField(SP, "sp");
+            storeField(HP, "hp");
+            storeField(TM, "tm");
+            out.var(ClassFile.ALOAD, VM);
+            out.invoke(ClassFile.INVOKEVIRTUAL, "svm/ExecuteVM", "alloc", "()V");
+            for (String field : new String[] {"sp", "stackOrigin", "hp", "tm"}) loadField(field);
+            loadArrays();
+            break;
+          default: // like ExecuteVM, unknown words are skipped
+            break;
+        }
+      }
+      out.bind(labels[length]);
+      out.iconst(length);
+      out.var(ClassFile.ISTORE, IP);
+
+      out.bind(fallback);
+      storeRegisters(-1);
+      out.var(ClassFile.ILOAD, IP);
+      out.op(ClassFile.IRETURN);
+
+      if (out.size() > HUGE) return null;
+      return cf.toBytes("svm/JitCode", "run", "(Lsvm/ExecuteVM;)I", 10, 9);
+    }
+
+    // grows the stack, if needed, so that the block at ip can push without checking
+    private void reserve(int ip) {
+      int depth = 0, need = 0;
+      for (int i = ip; i < length; i += ThreadedVM.hasOperand(code[i]) ? 2 : 1) {
+        if (i > ip && leader[i]) break;
+        switch (code[i]) {
+          case SVMParser.PUSH: case SVMParser.LOADRA: case SVMParser.LOADTM: case SVMParser.LOADFP:
+          case SVMParser.LOADHP: case SVMParser.LOADFPWOFF: case SVMParser.DUP: case SVMParser.LOADDISPLAY:
+            need = Math.max(need, ++depth);
+            break;
+          case SVMParser.STOREW: case SVMParser.BRANCHEQ: case SVMParser.BRANCHLESSEQ:
+            depth -= 2;
+            break;
+          case SVMParser.POP: case SVMParser.ADD: case SVMParser.SUB: case SVMParser.MULT: case SVMParser.DIV:
+          case SVMParser.JS: case SVMParser.JUMP: case SVMParser.STORERA: case SVMParser.STORETM: case SVMParser.STOREFP: case SVMParser.STOREHP:
+            depth--;
+            break;
+          case SVMParser.POPN:
+            depth -= code[i+1];
+            break;
+        }
+      }
+      if (need == 0) return;
+      int enough = out.newLabel();
+      out.var(ClassFile.ILOAD, SP);
+      out.iconst(need);
+      out.jump(ClassFile.IF_ICMPGE, enough);
+      out.var(ClassFile.ALOAD, VM);
+      out.var(ClassFile.ILOAD, SP);
+      out.iconst(need);
+      out.invoke(ClassFile.INVOKESTATIC, "svm/JitVM", "reserve", "(Lsvm/ExecuteVM;II)I");
+      out.var(ClassFile.ISTORE, SP);
+      loadField("stackOrigin");
+      loadArrays();
+      out.bind(enough);
+    }
+
+    // "push L; js" with L an instruction (a devirtualized method call): the push is
+    // dropped and the js becomes a goto, as L is an indirect target and has a label
+    private boolean directCall(int ip) {
+      return code[ip] == SVMParser.PUSH && ip+2 < length && code[ip+2] == SVMParser.JS && !leader[ip+2]
+          && code[ip+1] >= 0 && code[ip+1] < length && instruction[code[ip+1]];
+    }
+
+    // stack[--sp] = value
+    private void push(Runnable value) {
+      out.var(ClassFile.ALOAD, STACK);
+      out.iinc(SP, -1);
+      out.var(ClassFile.ILOAD, SP);
+      value.run();
+      out.op(ClassFile.IASTORE);
+    }
+
+    // local += n, with iinc if n fits its byte
+    private void add(int local, int n) {
+      if (n >= Byte.MIN_VALUE && n <= Byte.MAX_VALUE) out.iinc(local, n);
+      else {
+        out.var(ClassFile.ILOAD, local);
+        out.iconst(n);
+        out.op(ClassFile.IADD);
+        out.var(ClassFile.ISTORE, local);
+      }
+    }
+
+    // local = stack[sp++]
+    private void popTo(int local) {
+      top(0);
+      out.var(ClassFile.ISTORE, local);
+      out.iinc(SP, 1);
+    }
+
+    // pushes stack[sp+depth] on the JVM operand stack
+    private void top(int depth) {
+      out.var(ClassFile.ALOAD, STACK);
+      out.var(ClassFile.ILOAD, SP);
+      if (depth > 0) {
+        out.iconst(depth);
+        out.op(ClassFile.IADD);
+      }
+      out.op(ClassFile.IALOAD);
+    }
+
+    // stack[sp+1] = stack[sp+1] op stack[sp]; sp++
+    private void binary(int op) {
+      out.var(ClassFile.ALOAD, STACK);
+      out.var(ClassFile.ILOAD, SP);
+      out.iconst(1);
+      out.op(ClassFile.IADD);
+      out.op(ClassFile.DUP2);
+      out.op(ClassFile.IALOAD);
+      top(0);
+      out.op(op);
+      out.op(ClassFile.IASTORE);
+      out.iinc(SP, 1);
+    }
+
+    // stack[sp] = vm.load(address), with address computed by offset from stack[sp]
+    private void replaceTop(Runnable offset) {
+      out.var(ClassFile.ALOAD, STACK);
+      out.var(ClassFile.ILOAD, SP);
+      out.var(ClassFile.ALOAD, VM);
+      top(0);
+      offset.run();
+      out.invoke(ClassFile.INVOKEVIRTUAL, "svm/ExecuteVM", "load", "(I)I");
+      out.op(ClassFile.IASTORE);
+    }
+
+    // v1 = stack[sp]; v2 = stack[sp+1]; sp += 2; if (v2 cmp v1) goto target
+    private void compareAndBranch(int cmp, int target) {
+      top(1);
+      top(0);
+      out.iinc(SP, 2);
+      out.jump(cmp, target);
+    }
+
+    private void loadArrays() {
+      out.var(ClassFile.ALOAD, VM);
+      out.field(ClassFile.GETFIELD, "stack", "[I");
+      out.var(ClassFile.ASTORE, STACK);
+    }
+
+    private void loadField(String field) {
+      out.var(ClassFile.ALOAD, VM);
+      out.field(ClassFile.GETFIELD, field, "I");
+      out.var(ClassFile.ISTORE, local(field));
+    }
+
+    private void storeField(int local, String field) {
+      out.var(ClassFile.ALOAD, VM);
+      out.var(ClassFile.ILOAD, local);
+      out.field(ClassFile.PUTFIELD, field, "I");
+    }
+
+    // stores the registers in vm, with ip set to the given address (or to the IP local if -1)
+    private void storeRegisters(int ip) {
+      storeField(SP, "sp");
+      storeField(FP, "fp");
+      storeField(HP, "hp");
+      storeField(RA, "ra");
+      storeField(TM, "tm");
+      if (ip >= 0) {
+        out.iconst(ip);
+        out.var(ClassFile.ISTORE, IP);
+      }
+      storeField(IP, "ip");
+    }
+
+    private static int local(String field) {
+      switch (field) {
+        case "sp": return SP;
+        case "stackOrigin": return ORIGIN;
+        case "fp": return FP;
+        case "hp": return HP;
+        case "ra": return RA;
+        case "tm": return TM;
+        default: return IP;
+      }
+    }
+
+    /**
+     * Writer of a class file with one public static method, limited to the
+     * instructions used by JitCompiler.
+     */
+    private static class ClassFile {
+
+      static final int POP = 87, DUP2 = 92, IADD = 96, ISUB = 100, IMUL = 104, IDIV = 108, IALOAD = 46, IASTORE = 79;
+      static final int ILOAD = 21, ALOAD = 25, ISTORE = 54, ASTORE = 58, IINC = 132;
+      static final int IF_ICMPEQ = 159, IF_ICMPLT = 161, IF_ICMPGE = 162, IF_ICMPLE = 164, GOTO = 167;
+      static final int LOOKUPSWITCH = 171, IRETURN = 172, GETFIELD = 180, PUTFIELD = 181;
+      static final int INVOKEVIRTUAL = 182, INVOKESTATIC = 184;
+
+      private final Bytes pool = new Bytes();
+      private int poolCount = 1;
+      private final Map<String, Integer> entries = new HashMap<>();
+      final Code code = new Code();
+
+      byte[] toBytes(String name, String method, String descriptor, int maxStack, int maxLocals) {
+        int thisClass = classRef(name);
+        int superClass = classRef("java/lang/Object");
+        int methodName = utf8(method);
+        int methodDescriptor = utf8(descriptor);
+        int codeName = utf8("Code");
+        Bytes b = new Bytes();
+        b.u4(0xCAFEBABE);
+        b.u2(0);
+        b.u2(49);
+        b.u2(poolCount);
+        b.bytes(pool.toArray());
+        b.u2(0x0031); // public final super
+        b.u2(thisClass);
+        b.u2(superClass);
+        b.u2(0); // interfaces
+        b.u2(0); // fields
+        b.u2(1); // methods
+        b.u2(0x0009); // public static
+        b.u2(methodName);
+        b.u2(methodDescriptor);
+        b.u2(1);
+        b.u2(codeName);
+        byte[] instructions = code.toArray();
+        b.u4(12 + instructions.length);
+        b.u2(maxStack);
+        b.u2(maxLocals);
+        b.u4(instructions.length);
+        b.bytes(instructions);
+        b.u2(0); // exception table
+        b.u2(0); // code attributes
+        b.u2(0); // class attributes
+        return b.toArray();
+      }
+
+      private int entry(String key, Runnable write) {
+        Integer index = entries.get(key);
+        if (index == null) {
+          write.run();
+          index = poolCount++;
+          entries.put(key, index);
+        }
+        return index;
+      }
+
+      int utf8(String s) {
+        return entry("Utf8 "+s, () -> {
+          pool.u1(1);
+          pool.u2(s.length());
+          for (char c : s.toCharArray()) pool.u1(c);
+        });
+      }
+
+      int integer(int v) {
+        return entry("Integer "+v, () -> {
+          pool.u1(3);
+          pool.u4(v);
+        });
+      }
+
+      int classRef(String name) {
+        int n = utf8(name);
+        return entry("Class "+name, () -> {
+          pool.u1(7);
+          pool.u2(n);
+        });
+      }
+
+      int memberRef(int tag, String owner, String name, String descriptor) {
+        int c = classRef(owner);
+        int n = utf8(name);
+        int d = utf8(descriptor);
+        int nameAndType = entry("NameAndType "+name+" "+descriptor, () -> {
+          pool.u1(12);
+          pool.u2(n);
+          pool.u2(d);
+        });
+        return entry(tag+" "+owner+"."+name+" "+descriptor, () -> {
+          pool.u1(tag);
+          pool.u2(c);
+          pool.u2(nameAndType);
+        });
+      }
+
+      // bytecode of the method, with labels resolved when the class is written
+      class Code {
+        private final Bytes b = new Bytes();
+        private final List<Integer> labels = new ArrayList<>(); // positions, -1 if not bound
+        private final List<int[]> jumps = new ArrayList<>(); // {position of the opcode, position of the offset, label, wide}
+
+        int size() {
+          return b.size();
+        }
+
+        int newLabel() {
+          labels.add(-1);
+          return labels.size()-1;
+        }
+
+        void bind(int label) {
+          labels.set(label, b.size());
+        }
+
+        void op(int opcode) {
+          b.u1(opcode);
+        }
+
+        void var(int opcode, int local) {
+          if (local <= 3) { // iload_<n>, aload_<n>, istore_<n>, astore_<n>
+            b.u1((opcode == ILOAD ? 26 : opcode == ALOAD ? 42 : opcode == ISTORE ? 59 : 75) + local);
+            return;
+          }
+          b.u1(opcode);
+          b.u1(local);
+        }
+
+        void iinc(int local, int increment) {
+          b.u1(IINC);
+          b.u1(local);
+          b.u1(increment);
+        }
+
+        void iconst(int v) {
+          if (v >= -1 && v <= 5) b.u1(3 + v); // iconst_<v>
+          else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+            b.u1(16); // bipush
+            b.u1(v);
+          } else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+            b.u1(17); // sipush
+            b.u2(v);
+          } else {
+            b.u1(19); // ldc_w
+            b.u2(integer(v));
+          }
+        }
+
+        void field(int opcode, String name, String descriptor) {
+          b.u1(opcode);
+          b.u2(memberRef(9, "svm/ExecuteVM", name, descriptor));
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+          b.u1(opcode);
+          b.u2(memberRef(10, owner, name, descriptor));
+        }
+
+        void jump(int opcode, int label) {
+          jumps.add(new int[] {b.size(), b.size()+1, label, 0});
+          b.u1(opcode);
+          b.u2(0);
+        }
+
+        void lookupSwitch(int defaultLabel, int[] keys, int[] labels) {
+          int opcode = b.size();
+          b.u1(LOOKUPSWITCH);
+          while (b.size() % 4 != 0) b.u1(0);
+          jumps.add(new int[] {opcode, b.size(), defaultLabel, 1});
+          b.u4(0);
+          b.u4(keys.length);
+          for (int i = 0; i < keys.length; i++) {
+            b.u4(keys[i]);
+            jumps.add(new int[] {opcode, b.size(), labels[i], 1});
+            b.u4(0);
+          }
+        }
+
+        byte[] toArray() {
+          byte[] bytes = b.toArray();
+          for (int[] jump : jumps) {
+            int offset = labels.get(jump[2]) - jump[0];
+            if (jump[3] == 0) {
+              if (offset != (short) offset) throw new IllegalStateException("Branch offset out of range: "+offset);
+              bytes[jump[1]] = (byte) (offset >> 8);
+              bytes[jump[1]+1] = (byte) offset;
+            } else
+              for (int i = 0; i < 4; i++) bytes[jump[1]+i] = (byte) (offset >> (24 - 8*i));
+          }
+          return bytes;
+        }
+      }
+    }
+
+    private static class Bytes {
+      private byte[] b = new byte[1024];
+      private int n = 0;
+
+      int size() {
+        return n;
+      }
+
+      void u1(int v) {
+        if (n == b.length) b = Arrays.copyOf(b, 2*n);
+        b[n++] = (byte) v;
+      }
+
+      void u2(int v) {
+        u1(v >> 8);
+        u1(v);
+      }
+
+      void u4(int v) {
+        u2(v >> 16);
+        u2(v);
+      }
+
+      void bytes(byte[] bytes) {
+        for (byte v : bytes) u1(v);
+      }
+
+      byte[] toArray() {
+        return Arrays.copyOf(b, n);
+      }
+    }
+
+}
@@ -0,0 +1,61 @@
+package svm;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * ExecuteVM running the program compiled to JVM bytecode by JitCompiler, and
+ * falling back to the interpreter if it could not be compiled or when the
+ * compiled code jumps to an address it does not know.
+ */
+public class JitVM extends ExecuteVM {
+
+    private final MethodHandle compiled;
+
+    public JitVM(int[] code) {
+      this(code, MEMSIZE, MAXMEMSIZE);
+    }
+
+    public JitVM(int[] code, int memSize, int maxMemSize) {
+      super(code, false, memSize, maxMemSize);
+      compiled = JitCompiler.compile(code);
+    }
+
+    // whether the program runs as JVM bytecode
+    public boolean isCompiled() {
+      return compiled != null;
+    }
+
+    @Override
+    public void cpu() {
+      if (compiled != null) {
+        int next;
+        try {
+          next = (int) compiled.invokeExact((ExecuteVM) this);
+        } catch (RuntimeException | Error e) {
+          throw e;
+        } catch (Throwable e) {
+          throw new IllegalStateException(e);
+        }
+        if (next < 0) return;
+        ip = next;
+      }
+      super.cpu();
+    }
+
+    // called by the compiled code: grows the stack until need words can be pushed
+    static int reserve(ExecuteVM vm, int sp, int need) {
+      while (sp < need) sp = vm.growStack(sp);
+      return sp;
+    }
+
+    // called by the compiled code for lfw: reads the stack directly, without ExecuteVM.load
+    static int load(ExecuteVM vm, int[] stack, int origin, int address) {
+      return (address >= origin) ? stack[address-origin] : vm.load(address);
+    }
+
+    // called by the compiled code for print
+    static void print(int[] stack, int sp) {
+      System.out.println((sp<stack.length)?stack[sp]:"Empty stack!");
+    }
+
+}
@@ -0,0 +1,114 @@
+package svm;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Line-number table of a program: the code is split into ranges of
+ * consecutive addresses, each generated for one line of the FOOL source
+ * inside one function (or method, or the main program). A range is stored
+ * as its first address only, in three arrays sorted by address, and it
+ * extends to the first address of the next range; lookups are binary
+ * searches. The table is kept beside the int[] of the code, which stays
+ * the same, so the engines do not pay for it while executing.
+ * It is filled by BytecodeEmitter from the line markers of the code
+ * generator (see marker).
+ */
+public class LineTable {
+
+    private static final String MARKER = "/* line ";
+
+    private int[] starts = new int[64]; // first address of each range
+    private int[] lines = new int[64];
+    private String[] functions = new String[64];
+    private int size = 0;
+
+    // the comment that starts a range at the following instruction: Peephole and
+    // the assemblers skip it as any other comment
+    public static String marker(int line, String function) {
+      return MARKER+line+" "+function+" */";
+    }
+
+    // whether a (trimmed) line of assembly is a marker
+    public static boolean isMarker(String line) {
+      return line.startsWith(MARKER);
+    }
+
+    // starts the range of the marker at address; a marker without a line or a function is ignored
+    public void add(int address, String marker) {
+      int end = marker.lastIndexOf("*/");
+      String[] fields = marker.substring(MARKER.length(), end < 0 ? marker.length() : end).trim().split(" ", 2);
+      if (fields.length < 2 || !fields[0].matches("-?[0-9]+")) return;
+      add(address, Integer.parseInt(fields[0]), fields[1].trim());
+    }
+
+    // starts a range at address, which cannot be lower than the start of the last range
+    public void add(int address, int line, String function) {
+      if (size > 0 && address < starts[size-1]) throw new IllegalArgumentException("Line table out of order at address "+address);
+      if (size > 0 && address == starts[size-1]) size--; // the previous range is empty
+      if (size > 0 && lines[size-1] == line && functions[size-1].equals(function)) return; // continues the previous range
+      if (size == starts.length) {
+        starts = Arrays.copyOf(starts, size*2);
+        lines = Arrays.copyOf(lines, size*2);
+        functions = Arrays.copyOf(functions, size*2);
+      }
+      starts[size] = address;
+      lines[size] = line;
+      functions[size++] = function;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    // source line of the code at address, -1 if it is not known
+    public int line(int address) {
+      int r = range(address);
+      return r < 0 ? -1 : lines[r];
+    }
+
+    // function whose code is at address, null if it is not known
+    public String function(int address) {
+      int r = range(address);
+      return r < 0 ? null : functions[r];
+    }
+
+    // "line N in function" (or "in function" if the line is not known) for the code at address,
+    // null if nothing is known
+    public String describe(int address) {
+      int r = range(address);
+      if (r < 0) return null;
+      return lines[r] < 0 ? "in "+functions[r] : "line "+lines[r]+" in "+functions[r];
+    }
+
+    // index of the range containing address, -1 if the address is before the first one
+    private int range(int address) {
+      int r = Arrays.binarySearch(starts, 0, size, address);
+      return r >= 0 ? r : -r-2;
+    }
+
+    // size, then first address, line and function of each range (read back by read)
+    public void write(DataOutput out) throws IOException {
+      out.writeInt(size);
+      for (int r = 0; r < size; r++) {
+        out.writeInt(starts[r]);
+        out.writeInt(lines[r]);
+        out.writeUTF(functions[r]);
+      }
+    }
+
+    public static LineTable read(DataInput in) throws IOException {
+      LineTable table = new LineTable();
+      for (int r = in.readInt(); r > 0; r--) table.add(in.readInt(), in.readInt(), in.readUTF());
+      return table;
+    }
+
+    // one range per line: first address, line, function
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (int r = 0; r < size; r++) sb.append(starts[r]).append(' ').append(lines[r]).append(' ').append(functions[r]).append('\n');
+      return sb.toString();
+    }
+
+}
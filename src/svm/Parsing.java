@@ -0,0 +1,46 @@
+package svm;
+
+import java.util.*;
+import java.util.function.*;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+/**
+ * Two-stage parsing, for FOOLParser and SVMParser: the tokens are parsed
+ * first in SLL prediction mode, which is faster but stops at the first
+ * syntax error (or at an input that SLL cannot decide); only then they are
+ * parsed again, after Parser.reset(), in the full LL mode with the usual
+ * error reporting and recovery. A successful SLL parse is the LL parse.
+ */
+public class Parsing {
+
+    public static boolean sll = !Boolean.getBoolean("noSLL"); // -DnoSLL=true parses in LL mode only
+
+    // the tree built by rule (e.g. FOOLParser::prog) of parser
+    public static <P extends Parser, T extends ParserRuleContext> T parse(P parser, Function<P, T> rule) {
+      if (!sll) return rule.apply(parser);
+      List<? extends ANTLRErrorListener> listeners = new ArrayList<>(parser.getErrorListeners());
+      ANTLRErrorStrategy handler = parser.getErrorHandler();
+      parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+      parser.removeErrorListeners();
+      parser.setErrorHandler(new BailErrorStrategy());
+      try {
+        return rule.apply(parser);
+      } catch (ParseCancellationException e) {
+        parser.reset(); // rewinds the tokens
+        restore(parser, listeners, handler);
+        return rule.apply(parser);
+      } finally {
+        restore(parser, listeners, handler);
+      }
+    }
+
+    private static void restore(Parser parser, List<? extends ANTLRErrorListener> listeners, ANTLRErrorStrategy handler) {
+      parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+      parser.setErrorHandler(handler);
+      parser.removeErrorListeners();
+      for (ANTLRErrorListener listener : listeners) parser.addErrorListener(listener);
+    }
+
+}
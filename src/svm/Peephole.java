@@ -0,0 +1,102 @@
+package svm;
+
+import java.util.*;
+
+/**
+ * Peephole stage of the assembler: replaces the instruction sequences that
+ * the code generator emits over and over with superinstructions executed in
+ * a single dispatch. A sequence is fused only if no label is defined inside
+ * it, so jump targets are preserved; comments are dropped, except the line
+ * markers (see LineTable), which do not prevent a fusion: the marker before
+ * the first instruction of a sequence is kept before the superinstruction,
+ * the last one inside it is moved after.
+ *
+ *   lfp; push k; add; lw         ->  lfw k
+ *   push k; add; lw              ->  lwo k
+ *   lhp; push 1; add; shp        ->  ihp
+ *   push 1; lhp; add; shp        ->  ihp
+ *   stm; ltm; ltm                ->  dup   (also leaves the value in $tm)
+ *   stm; [pops d]; sra; pops k+1; sfp; ltm; lra; js
+ *                                ->  ret k (epilogue of a function with k parameters,
+ *                                    where pops n is "pop" or "popn n")
+ */
+public class Peephole {
+
+    public static List<String> fuse(Iterable<String> lines) {
+      List<String> in = new ArrayList<>();
+      List<String> markers = new ArrayList<>(); // the last line marker before each instruction of in, or null
+      String marker = null;
+      for (String line : lines) {
+        line = line.trim();
+        if (LineTable.isMarker(line)) marker = line;
+        else if (!line.isEmpty() && !line.startsWith("/*")) {
+          in.add(line);
+          markers.add(marker);
+          marker = null;
+        }
+      }
+      List<String> out = new ArrayList<>(in.size());
+      int i = 0;
+      while (i < in.size()) {
+        String k;
+        int n;
+        if (in.get(i).equals("lfp") && (k = offset(in, i+1)) != null) {
+          i = replace(out, markers, i, 4, "lfw "+k);
+        } else if ((k = offset(in, i)) != null) {
+          i = replace(out, markers, i, 3, "lwo "+k);
+        } else if (matches(in, i, "lhp", "push 1", "add", "shp") || matches(in, i, "push 1", "lhp", "add", "shp")) {
+          i = replace(out, markers, i, 4, "ihp");
+        } else if (matches(in, i, "stm", "ltm", "ltm")) {
+          i = replace(out, markers, i, 3, "dup");
+        } else if ((n = epilogue(in, i)) > 0) {
+          i = replace(out, markers, i, n, "ret "+(words(in.get(i+n-5))-1)); // the pops before sfp
+        } else i = replace(out, markers, i, 1, in.get(i));
+      }
+      return out;
+    }
+
+    // appends instruction in place of the n instructions at i, with their line markers; returns i+n
+    private static int replace(List<String> out, List<String> markers, int i, int n, String instruction) {
+      if (markers.get(i) != null) out.add(markers.get(i));
+      out.add(instruction);
+      for (int j = i+n-1; j > i; j--)
+        if (markers.get(j) != null) {
+          out.add(markers.get(j));
+          break;
+        }
+      return i+n;
+    }
+
+    // length of the function epilogue (see above) at i, 0 if there is none
+    private static int epilogue(List<String> in, int i) {
+      if (!matches(in, i, "stm")) return 0;
+      int j = i+1;
+      if (j < in.size() && words(in.get(j)) > 0) j++;
+      if (!matches(in, j, "sra") || j+1 >= in.size() || words(in.get(j+1)) == 0) return 0;
+      return matches(in, j+2, "sfp", "ltm", "lra", "js") ? j+6-i : 0;
+    }
+
+    // words removed by a "pop" or "popn n" instruction, 0 for any other
+    private static int words(String instruction) {
+      if (instruction.equals("pop")) return 1;
+      if (!instruction.startsWith("popn ")) return 0;
+      String n = instruction.substring(5).trim();
+      return n.matches("[0-9]+") ? Integer.parseInt(n) : 0;
+    }
+
+    // k if the instructions at i are "push k; add; lw" with k an integer, null otherwise
+    private static String offset(List<String> in, int i) {
+      if (i+2 >= in.size() || !in.get(i).startsWith("push ")) return null;
+      String k = in.get(i).substring(5).trim();
+      if (!k.matches("-?[0-9]+")) return null;
+      return matches(in, i+1, "add", "lw") ? k : null;
+    }
+
+    private static boolean matches(List<String> in, int i, String... pattern) {
+      if (i+pattern.length > in.size()) return false;
+      for (int j = 0; j < pattern.length; j++)
+        if (!in.get(i+j).equals(pattern[j])) return false;
+      return true;
+    }
+
+}
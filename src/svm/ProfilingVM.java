@@ -0,0 +1,228 @@
+package svm;
+
+import java.io.*;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * ThreadedVM recording where a program spends its instructions: how many
+ * times each opcode and each address is executed, the maximum depth of the
+ * stack and the highest $hp. Calls and returns are followed with a shadow
+ * stack: a js is a return if it jumps to the address after the js of the
+ * innermost call, otherwise it is a call; jp (a tail call) replaces the
+ * innermost call and ret returns from it. Every instruction is counted in
+ * the current path of calls from the main program, so that both the self and
+ * the inclusive counts of each function can be derived, and the paths can be
+ * printed as collapsed stacks (the input of flamegraph.pl). A path does not
+ * grow with the recursion: a function calling itself stays in the same path,
+ * and a call deeper than MAXDEPTH is counted in the path of its function below
+ * a "..." in place of the calls between.
+ * Addresses are named by the labels of the assembly and, if known, by the
+ * lines of the FOOL source they were generated for.
+ * Profiling is a separate engine, so the others do not pay for it.
+ */
+public class ProfilingVM extends ThreadedVM {
+
+    static final int MAXDEPTH = 128; // calls in a path, as the stack depth of perf
+
+    private static final int MAIN = -1, EXIT_PATH = -2, TRUNCATED = -3; // functions of the paths that are not addresses
+
+    // a path of calls from the main program, with the instructions executed in its last function
+    private static final class CallPath {
+      final int function; // address, MAIN, or TRUNCATED for the "..." of the calls beyond MAXDEPTH
+      final int depth; // calls from the main program
+      final CallPath truncated; // the "..." path this path is below, null if it is not that deep
+      final Map<Integer,CallPath> callees = new HashMap<>();
+      long self;
+      long calls;
+
+      CallPath(int function, int depth, CallPath truncated) {
+        this.function = function;
+        this.depth = depth;
+        this.truncated = truncated;
+      }
+
+      // the path of a call of function from this path: this path itself for a recursive call
+      CallPath callee(int function) {
+        CallPath callee;
+        if (function == this.function) callee = this;
+        else if (truncated != null) callee = truncated.below(function);
+        else if (depth == MAXDEPTH) callee = callees.computeIfAbsent(TRUNCATED, f -> new CallPath(f, depth+1, null)).below(function);
+        else callee = callees.computeIfAbsent(function, f -> new CallPath(f, depth+1, null));
+        callee.calls++;
+        return callee;
+      }
+
+      // the path of function below "..."
+      private CallPath below(int function) {
+        return callees.computeIfAbsent(function, f -> new CallPath(f, depth+1, this));
+      }
+    }
+
+    private final Map<Integer,String> names = new HashMap<>(); // of the labelled addresses
+    private final Map<Integer,Integer> lines = new HashMap<>(); // of the labelled addresses, when known
+    private final CallPath main = new CallPath(MAIN, 0, null);
+    private static final CallPath EXIT = new CallPath(EXIT_PATH, 0, null); // in the visits of the paths, after the callees of a path
+    // shadow stack of the calls in progress: their return addresses and paths
+    private int[] returnAddresses = new int[64];
+    private CallPath[] paths = new CallPath[64];
+    private int calls = 0;
+    private final long[] opcodes = new long[SVMParser.VOCABULARY.getMaxTokenType()+1];
+    private final long[] executed; // by address
+    private long instructions = 0;
+    private int maxDepth = 0;
+    private int maxHp = 0;
+
+    // labels: address of every label (see BytecodeEmitter.assemble); labelLines: FOOL source
+    // line of the labels, if known (see FOOLCompiler.labelLines); either can be empty
+    public ProfilingVM(int[] code, Map<String,Integer> labels, Map<String,Integer> labelLines) {
+      super(code);
+      executed = new long[code.length];
+      for (Map.Entry<String,Integer> label : new TreeMap<>(labels).entrySet()) {
+        names.putIfAbsent(label.getValue(), label.getKey()); // the first in alphabetic order
+        Integer line = labelLines.get(label.getKey());
+        if (line != null && line >= 0) lines.putIfAbsent(label.getValue(), line);
+      }
+    }
+
+    @Override
+    public void cpu() {
+      CallPath path = main;
+      int ip = 0;
+      try {
+        while (ip >= 0) {
+          int bytecode = code[ip];
+          instructions++;
+          executed[ip]++;
+          path.self++;
+          if (bytecode >= 0 && bytecode < opcodes.length) opcodes[bytecode]++;
+          if (stack.length-sp > maxDepth) maxDepth = stack.length-sp;
+          if ((bytecode == SVMParser.JS || bytecode == SVMParser.JUMP) && sp < stack.length) {
+            int target = stack[sp];
+            if (bytecode == SVMParser.JUMP && calls > 0) path = paths[calls-1] = caller().callee(target);
+            else if (calls > 0 && target == returnAddresses[calls-1]) path = (--calls == 0) ? main : paths[calls-1];
+            else path = call(ip+1, path.callee(target));
+          } else if (bytecode == SVMParser.RETURN && calls > 0) path = (--calls == 0) ? main : paths[calls-1];
+          ip = step(ip);
+          if (hp > maxHp) maxHp = hp;
+        }
+      } catch (RuntimeException e) {
+        throw located(e, ip);
+      }
+    }
+
+    // path of the caller of the innermost call in progress
+    private CallPath caller() {
+      return calls == 1 ? main : paths[calls-2];
+    }
+
+    // pushes a call on the shadow stack and returns its path
+    private CallPath call(int returnAddress, CallPath path) {
+      if (calls == paths.length) {
+        returnAddresses = Arrays.copyOf(returnAddresses, 2*calls);
+        paths = Arrays.copyOf(paths, 2*calls);
+      }
+      returnAddresses[calls] = returnAddress;
+      return paths[calls++] = path;
+    }
+
+    // flat profile: totals, then functions by inclusive instructions,
+    // branch targets by executions and opcodes by executions
+    public void printProfile(PrintStream out) {
+      Map<Integer,long[]> functions = new HashMap<>(); // calls, self, inclusive
+      Map<Integer,Integer> active = new HashMap<>(); // calls of each function in the path being visited
+      Deque<CallPath> pending = new ArrayDeque<>(List.of(main));
+      Deque<Integer> exits = new ArrayDeque<>(); // iterative, call paths can be as deep as the recursion
+      Map<CallPath,Long> totals = totals();
+      while (!pending.isEmpty()) {
+        CallPath p = pending.pop();
+        if (p == EXIT) { // all the callees of the path on top of exits have been visited
+          active.merge(exits.pop(), -1, Integer::sum);
+          continue;
+        }
+        if (p.function == TRUNCATED) { // not a function, its callees are
+          for (CallPath callee : p.callees.values()) pending.push(callee);
+          continue;
+        }
+        long[] f = functions.computeIfAbsent(p.function, k -> new long[3]);
+        f[0] += p.calls;
+        f[1] += p.self;
+        if (active.merge(p.function, 1, Integer::sum) == 1) f[2] += totals.get(p); // outermost call in the path
+        exits.push(p.function);
+        pending.push(EXIT);
+        for (CallPath callee : p.callees.values()) pending.push(callee);
+      }
+
+      out.printf("%d instructions, max stack depth %d words, heap high-water mark %d words%n", instructions, maxDepth, maxHp);
+      out.printf("%n%-24s %12s %14s %7s %14s %7s%n", "function", "calls", "self", "%", "inclusive", "%");
+      functions.entrySet().stream()
+        .sorted((a, b) -> Long.compare(b.getValue()[2], a.getValue()[2]))
+        .forEach(e -> out.printf("%-24s %12d %14d %6.2f%% %14d %6.2f%%%n", name(e.getKey()),
+          e.getValue()[0], e.getValue()[1], percent(e.getValue()[1]), e.getValue()[2], percent(e.getValue()[2])));
+
+      out.printf("%n%-24s %14s%n", "label", "executions");
+      names.keySet().stream()
+        .filter(address -> executed[address] > 0 && !functions.containsKey(address))
+        .sorted((a, b) -> Long.compare(executed[b], executed[a]))
+        .forEach(address -> out.printf("%-24s %14d%n", name(address), executed[address]));
+
+      out.printf("%n%-24s %14s %7s%n", "opcode", "executions", "%");
+      IntStream.range(0, opcodes.length).boxed()
+        .filter(op -> opcodes[op] > 0)
+        .sorted((a, b) -> Long.compare(opcodes[b], opcodes[a]))
+        .forEach(op -> {
+          String literal = SVMParser.VOCABULARY.getLiteralName(op);
+          out.printf("%-24s %14d %6.2f%%%n", literal.substring(1, literal.length()-1), opcodes[op], percent(opcodes[op]));
+        });
+    }
+
+    // one line per path of calls that executed instructions: the functions
+    // from the main program separated by ';' (at most MAXDEPTH of them, then "..."
+    // and the innermost one), then the instructions
+    public void printCollapsed(PrintStream out) {
+      Deque<CallPath> pending = new ArrayDeque<>(List.of(main));
+      Map<CallPath,String> stacks = new HashMap<>(Map.of(main, "main"));
+      while (!pending.isEmpty()) {
+        CallPath p = pending.pop();
+        String stack = stacks.remove(p);
+        if (p.self > 0) out.println(stack+" "+p.self);
+        for (CallPath callee : p.callees.values()) {
+          stacks.put(callee, stack+";"+name(callee.function));
+          pending.push(callee);
+        }
+      }
+    }
+
+    // instructions executed in each path of calls and in the calls that extend it
+    private Map<CallPath,Long> totals() {
+      Map<CallPath,Long> totals = new HashMap<>();
+      List<CallPath> order = new ArrayList<>(); // every path before its callees
+      Deque<CallPath> pending = new ArrayDeque<>(List.of(main));
+      while (!pending.isEmpty()) {
+        CallPath p = pending.pop();
+        order.add(p);
+        pending.addAll(p.callees.values());
+      }
+      for (int i = order.size()-1; i >= 0; i--) {
+        CallPath p = order.get(i);
+        long total = p.self;
+        for (CallPath callee : p.callees.values()) total += totals.get(callee);
+        totals.put(p, total);
+      }
+      return totals;
+    }
+
+    // label (with its line) of an address, or the address itself
+    private String name(int address) {
+      if (address == TRUNCATED) return "...";
+      if (address < 0) return "main";
+      String name = names.getOrDefault(address, "@"+address);
+      Integer line = lines.get(address);
+      return line == null ? name : name+":"+line;
+    }
+
+    private double percent(long n) {
+      return instructions == 0 ? 0 : 100.0*n/instructions;
+    }
+
+}
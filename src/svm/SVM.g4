@@ -1,59 +1,81 @@
 grammar SVM;
 
-@parser::header {
-import java.util.*;
-}
-
 @lexer::members {
 public int lexicalErrors=0;
 }
    
 @parser::members { 
-public int[] code = new int[ExecuteVM.CODESIZE];    
-private int i = 0;
-private Map<String,Integer> labelDef = new HashMap<>();
-private Map<Integer,String> labelRef = new HashMap<>();
+public int[] code; // set at the end of assembly
+private CodeBuffer buffer = new CodeBuffer(); // labels are resolved as they are defined
+
+private void emit(int v) {
+  buffer.emit(v);
+}
+
+@Override
+public void reset() { // also the code emitted so far, to parse again (see Parsing); called by the constructor too
+  super.reset();
+  buffer = new CodeBuffer();
+}
 }
 
 /*------------------------------------------------------------------
  * PARSER RULES
  *------------------------------------------------------------------*/
    
-assembly: instruction* EOF 	{ for (Integer j: labelRef.keySet()) 
-								code[j]=labelDef.get(labelRef.get(j)); 
-							} ;
+assembly: instruction* EOF 	{ code = buffer.toCode(); } ;
 
 instruction : 
-        PUSH n=INTEGER   {code[i++] = PUSH; 
-			              code[i++] = Integer.parseInt($n.text);}
-	  | PUSH l=LABEL    {code[i++] = PUSH; 
-	    		             labelRef.put(i++,$l.text);} 		     
-	  | POP		    {code[i++] = POP;}	
-	  | ADD		    {code[i++] = ADD;}
-	  | SUB		    {code[i++] = SUB;}
-	  | MULT	    {code[i++] = MULT;}
-	  | DIV		    {code[i++] = DIV;}
-	  | STOREW	  {code[i++] = STOREW;} //
-	  | LOADW           {code[i++] = LOADW;} //
-	  | l=LABEL COL     {labelDef.put($l.text,i);}
-	  | BRANCH l=LABEL  {code[i++] = BRANCH;
-                       labelRef.put(i++,$l.text);}
-	  | BRANCHEQ l=LABEL {code[i++] = BRANCHEQ;
-                        labelRef.put(i++,$l.text);}
-	  | BRANCHLESSEQ l=LABEL {code[i++] = BRANCHLESSEQ;
-                          labelRef.put(i++,$l.text);}
-	  | JS              {code[i++] = JS;}		     //
-	  | LOADRA          {code[i++] = LOADRA;}    //
-	  | STORERA         {code[i++] = STORERA;}   //
-	  | LOADTM          {code[i++] = LOADTM;}   
-	  | STORETM         {code[i++] = STORETM;}   
-	  | LOADFP          {code[i++] = LOADFP;}   //
-	  | STOREFP         {code[i++] = STOREFP;}   //
-	  | COPYFP          {code[i++] = COPYFP;}   //
-	  | LOADHP          {code[i++] = LOADHP;}   //
-	  | STOREHP         {code[i++] = STOREHP;}   //
-	  | PRINT           {code[i++] = PRINT;}
-	  | HALT            {code[i++] = HALT;}
+        PUSH n=INTEGER   {emit(PUSH); 
+			              emit(Integer.parseInt($n.text));}
+	  | PUSH l=LABEL    {emit(PUSH); 
+	    		             buffer.emitLabel($l.text);} 		     
+	  | POP		    {emit(POP);}	
+	  | ADD		    {emit(ADD);}
+	  | SUB		    {emit(SUB);}
+	  | MULT	    {emit(MULT);}
+	  | DIV		    {emit(DIV);}
+	  | STOREW	  {emit(STOREW);} //
+	  | LOADW           {emit(LOADW);} //
+	  | l=LABEL COL     {buffer.define($l.text);}
+	  | BRANCH l=LABEL  {emit(BRANCH);
+                       buffer.emitLabel($l.text);}
+	  | BRANCHEQ l=LABEL {emit(BRANCHEQ);
+                        buffer.emitLabel($l.text);}
+	  | BRANCHLESSEQ l=LABEL {emit(BRANCHLESSEQ);
+                          buffer.emitLabel($l.text);}
+	  | JS              {emit(JS);}		     //
+	  | LOADRA          {emit(LOADRA);}    //
+	  | STORERA         {emit(STORERA);}   //
+	  | LOADTM          {emit(LOADTM);}   
+	  | STORETM         {emit(STORETM);}   
+	  | LOADFP          {emit(LOADFP);}   //
+	  | STOREFP         {emit(STOREFP);}   //
+	  | COPYFP          {emit(COPYFP);}   //
+	  | LOADHP          {emit(LOADHP);}   //
+	  | STOREHP         {emit(STOREHP);}   //
+	  | PRINT           {emit(PRINT);}
+	  | HALT            {emit(HALT);}
+	  | LOADWOFF n=INTEGER   {emit(LOADWOFF); 
+			                  emit(Integer.parseInt($n.text));}
+	  | LOADFPWOFF n=INTEGER {emit(LOADFPWOFF); 
+			                  emit(Integer.parseInt($n.text));}
+	  | INCHP           {emit(INCHP);}
+	  | DUP             {emit(DUP);}
+	  | ALLOC           {emit(ALLOC);}
+	  | JUMP            {emit(JUMP);}
+	  | LOADMETHOD n=INTEGER {emit(LOADMETHOD); 
+			                  emit(Integer.parseInt($n.text));}
+	  | POPN n=INTEGER  {emit(POPN); 
+			             emit(Integer.parseInt($n.text));}
+	  | RETURN n=INTEGER {emit(RETURN); 
+			              emit(Integer.parseInt($n.text));}
+	  | LOADDISPLAY n=INTEGER {emit(LOADDISPLAY); 
+			                   emit(Integer.parseInt($n.text));}
+	  | ENTER n=INTEGER {emit(ENTER); 
+			             emit(Integer.parseInt($n.text));}
+	  | LEAVE n=INTEGER {emit(LEAVE); 
+			             emit(Integer.parseInt($n.text));}
 	  ;
 	  
 /*------------------------------------------------------------------
@@ -83,6 +105,20 @@ LOADHP	 : 'lhp' ;
 STOREHP	 : 'shp' ;	
 PRINT	 : 'print' ;	
 HALT	 : 'halt' ;	
+// superinstructions (see Peephole)
+LOADWOFF   : 'lwo' ;	// push k; add; lw
+LOADFPWOFF : 'lfw' ;	// lfp; push k; add; lw
+INCHP	 : 'ihp' ;	// lhp; push 1; add; shp
+DUP	 : 'dup' ;	// stm; ltm; ltm
+ALLOC	 : 'alloc' ;	// object allocation (see ExecuteVM.alloc)
+JUMP	 : 'jp' ;	// jump to popped address without changing $ra (tail calls)
+LOADMETHOD : 'lm' ;	// lw; push k; add; lw with an inline cache (see ExecuteVM.method)
+POPN	 : 'popn' ;	// pop k words
+RETURN	 : 'ret' ;	// stm; popn d; sra; popn k+1; sfp; ltm; lra; js: epilogue of a function with k parameters (see Peephole)
+// display of the frames by nesting level (see ExecuteVM.enter)
+LOADDISPLAY : 'ld' ;	// push the address of the latest frame at nesting level k
+ENTER	 : 'enter' ;	// the frame at $fp is the latest at nesting level k
+LEAVE	 : 'leave' ;	// restores the latest frame at nesting level k before enter k
  
 COL	 : ':' ;
 LABEL	 : ('a'..'z'|'A'..'Z')('a'..'z' | 'A'..'Z' | '0'..'9')* ;
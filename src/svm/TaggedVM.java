@@ -0,0 +1,185 @@
+package svm;
+
+/**
+ * ExecuteVM keeping a reference bit for every stack and heap word and for
+ * $tm, so that the garbage collector can scan the roots precisely, moving
+ * (rather than pinning) the objects they reference.
+ * Object pointers are only created by alloc: every other instruction either
+ * moves a value together with its bit (lw, sw, stm, ltm, dup, lwo, lfw) or
+ * produces an integer, a code address or a frame pointer, which is untagged.
+ */
+public class TaggedVM extends ExecuteVM {
+
+    public TaggedVM(int[] code) {
+      this(code, MEMSIZE, MAXMEMSIZE);
+    }
+
+    public TaggedVM(int[] code, int memSize, int maxMemSize) {
+      super(code, false, memSize, maxMemSize);
+      stackRefs = new boolean[stack.length];
+      heapRefs = new boolean[heap.length];
+    }
+
+    @Override
+    void execute() {
+      while ( true ) {
+        int bytecode = code[ip++]; // fetch
+        int v1,v2;
+        int address;
+        boolean ref;
+        switch ( bytecode ) {
+          case SVMParser.PUSH:
+            push( code[ip++], false );
+            break;
+          case SVMParser.POP:
+            pop();
+            break;
+          case SVMParser.ADD :
+            v1=pop();
+            v2=pop();
+            push(v2 + v1, false);
+            break;
+          case SVMParser.MULT :
+            v1=pop();
+            v2=pop();
+            push(v2 * v1, false);
+            break;
+          case SVMParser.DIV :
+            v1=pop();
+            v2=pop();
+            push(v2 / v1, false);
+            break;
+          case SVMParser.SUB :
+            v1=pop();
+            v2=pop();
+            push(v2 - v1, false);
+            break;
+          case SVMParser.STOREW :
+            address = pop();
+            ref = stackRefs[sp];
+            store(address, pop());
+            storeRef(address, ref);
+            break;
+          case SVMParser.LOADW :
+            address = pop();
+            push(load(address), loadRef(address));
+            break;
+          case SVMParser.BRANCH :
+            address = code[ip];
+            ip = address;
+            break;
+          case SVMParser.BRANCHEQ :
+            address = code[ip++];
+            v1=pop();
+            v2=pop();
+            if (v2 == v1) ip = address;
+            break;
+          case SVMParser.BRANCHLESSEQ :
+            address = code[ip++];
+            v1=pop();
+            v2=pop();
+            if (v2 <= v1) ip = address;
+            break;
+          case SVMParser.JS :
+            address = pop();
+            ra = ip;
+            ip = address;
+            break;
+         case SVMParser.STORERA :
+            ra=pop();
+            break;
+         case SVMParser.LOADRA :
+            push(ra, false);
+            break;
+         case SVMParser.STORETM :
+            tmRef = stackRefs[sp];
+            tm=pop();
+            break;
+         case SVMParser.LOADTM :
+            push(tm, tmRef);
+            break;
+         case SVMParser.LOADFP :
+            push(fp, false);
+            break;
+         case SVMParser.STOREFP :
+            fp=pop();
+            break;
+         case SVMParser.COPYFP :
+            fp=stackOrigin+sp;
+            break;
+         case SVMParser.STOREHP :
+            hp=pop();
+            break;
+         case SVMParser.LOADHP :
+            push(hp, false);
+            break;
+         case SVMParser.PRINT :
+            System.out.println((sp<stack.length)?stack[sp]:"Empty stack!");
+            break;
+         case SVMParser.HALT :
+            return;
+         case SVMParser.LOADWOFF :
+            address = pop() + code[ip++];
+            push(load(address), loadRef(address));
+            break;
+         case SVMParser.LOADFPWOFF :
+            address = fp + code[ip++];
+            push(load(address), loadRef(address));
+            break;
+         case SVMParser.INCHP :
+            hp++;
+            break;
+         case SVMParser.DUP :
+            tm = stack[sp];
+            tmRef = stackRefs[sp];
+            push(tm, tmRef);
+            break;
+         case SVMParser.ALLOC :
+            alloc();
+            break;
+         case SVMParser.JUMP :
+            ip = pop();
+            break;
+         case SVMParser.LOADMETHOD :
+            push(method(pop(), ip-1), false);
+            ip++;
+            break;
+         case SVMParser.POPN :
+            sp += code[ip++];
+            if (sp > stack.length) throw underflow(sp);
+            break;
+         case SVMParser.RETURN :
+            tmRef = stackRefs[sp];
+            ret(code[ip]);
+            stackRefs[sp] = tmRef;
+            break;
+         case SVMParser.LOADDISPLAY :
+            push(display[code[ip++]], false);
+            break;
+         case SVMParser.ENTER :
+            enter(code[ip++], fp);
+            break;
+         case SVMParser.LEAVE :
+            leave(code[ip++]);
+            break;
+        }
+      }
+    }
+
+    private void push(int v, boolean ref) {
+      push(v);
+      stackRefs[sp] = ref;
+    }
+
+    private boolean loadRef(int address) {
+      if (address >= stackOrigin) return stackRefs[address-stackOrigin];
+      return address < heapRefs.length && heapRefs[address];
+    }
+
+    // after store(address, ...), which has grown the heap if needed
+    private void storeRef(int address, boolean ref) {
+      if (address >= stackOrigin) stackRefs[address-stackOrigin] = ref;
+      else heapRefs[address] = ref;
+    }
+
+}
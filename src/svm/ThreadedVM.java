@@ -0,0 +1,150 @@
+package svm;
+
+/**
+ * Alternative execution engine for the same bytecode as ExecuteVM: the
+ * program is decoded once into one handler per instruction, each with its
+ * operand and the address of the following instruction already bound, so
+ * the dispatch loop only has to call handlers[ip] (closure-threaded code).
+ * Registers and memory are those of ExecuteVM.
+ */
+public class ThreadedVM extends ExecuteVM {
+
+    // executes one instruction and returns the address of the next one (-1 to halt)
+    private abstract static class Handler {
+      abstract int exec();
+    }
+
+    private Handler[] handlers;
+
+    private long executed = 0; // updated only if instructions are counted
+
+    public ThreadedVM(int[] code) {
+      this(code, false);
+    }
+
+    public ThreadedVM(int[] code, boolean countInstructions) {
+      super(code);
+      handlers = new Handler[code.length];
+      int ip = 0;
+      while (ip < code.length) {
+        int address = ip;
+        Handler h = decode(code, address);
+        if (countInstructions) {
+          Handler decoded = h;
+          h = new Handler() { int exec() { executed++; return decoded.exec(); } };
+        }
+        handlers[address] = h;
+        ip = address + (hasOperand(code[address]) ? 2 : 1);
+      }
+    }
+
+    // number of instructions executed by cpu(), if they have been counted
+    public long executedInstructions() {
+      return executed;
+    }
+
+    @Override
+    public void cpu() {
+      int ip = 0;
+      try {
+        while (ip >= 0) ip = handlers[ip].exec();
+      } catch (RuntimeException e) {
+        throw located(e, ip);
+      }
+    }
+
+    // executes the instruction at ip and returns the address of the next one (-1 to halt)
+    int step(int ip) {
+      return handlers[ip].exec();
+    }
+
+    static boolean hasOperand(int bytecode) {
+      return bytecode == SVMParser.PUSH || bytecode == SVMParser.BRANCH
+          || bytecode == SVMParser.BRANCHEQ || bytecode == SVMParser.BRANCHLESSEQ
+          || bytecode == SVMParser.LOADWOFF || bytecode == SVMParser.LOADFPWOFF
+          || bytecode == SVMParser.LOADMETHOD || bytecode == SVMParser.POPN
+          || bytecode == SVMParser.RETURN || bytecode == SVMParser.LOADDISPLAY
+          || bytecode == SVMParser.ENTER || bytecode == SVMParser.LEAVE;
+    }
+
+    private Handler decode(int[] code, int address) {
+      int next = address + 1;
+      int arg = (next < code.length) ? code[next] : 0;
+      int afterArg = next + 1;
+      switch (code[address]) {
+        case SVMParser.PUSH:
+          return new Handler() { int exec() { push(arg); return afterArg; } };
+        case SVMParser.POP:
+          return new Handler() { int exec() { if (++sp > stack.length) throw underflow(sp); return next; } };
+        case SVMParser.ADD :
+          return new Handler() { int exec() { int v1=pop(); int v2=pop(); push(v2 + v1); return next; } };
+        case SVMParser.MULT :
+          return new Handler() { int exec() { int v1=pop(); int v2=pop(); push(v2 * v1); return next; } };
+        case SVMParser.DIV :
+          return new Handler() { int exec() { int v1=pop(); int v2=pop(); push(v2 / v1); return next; } };
+        case SVMParser.SUB :
+          return new Handler() { int exec() { int v1=pop(); int v2=pop(); push(v2 - v1); return next; } };
+        case SVMParser.STOREW :
+          return new Handler() { int exec() { int a=pop(); store(a, pop()); return next; } };
+        case SVMParser.LOADW :
+          return new Handler() { int exec() { push(load(pop())); return next; } };
+        case SVMParser.BRANCH :
+          return new Handler() { int exec() { return arg; } };
+        case SVMParser.BRANCHEQ :
+          return new Handler() { int exec() { int v1=pop(); int v2=pop(); return (v2 == v1) ? arg : afterArg; } };
+        case SVMParser.BRANCHLESSEQ :
+          return new Handler() { int exec() { int v1=pop(); int v2=pop(); return (v2 <= v1) ? arg : afterArg; } };
+        case SVMParser.JS :
+          return new Handler() { int exec() { ra = next; return pop(); } };
+        case SVMParser.STORERA :
+          return new Handler() { int exec() { ra=pop(); return next; } };
+        case SVMParser.LOADRA :
+          return new Handler() { int exec() { push(ra); return next; } };
+        case SVMParser.STORETM :
+          return new Handler() { int exec() { tm=pop(); return next; } };
+        case SVMParser.LOADTM :
+          return new Handler() { int exec() { push(tm); return next; } };
+        case SVMParser.LOADFP :
+          return new Handler() { int exec() { push(fp); return next; } };
+        case SVMParser.STOREFP :
+          return new Handler() { int exec() { fp=pop(); return next; } };
+        case SVMParser.COPYFP :
+          return new Handler() { int exec() { fp=stackOrigin+sp; return next; } };
+        case SVMParser.STOREHP :
+          return new Handler() { int exec() { hp=pop(); return next; } };
+        case SVMParser.LOADHP :
+          return new Handler() { int exec() { push(hp); return next; } };
+        case SVMParser.PRINT :
+          return new Handler() { int exec() { System.out.println((sp<stack.length)?stack[sp]:"Empty stack!"); return next; } };
+        case SVMParser.HALT :
+          return new Handler() { int exec() { return -1; } };
+        case SVMParser.LOADWOFF :
+          return new Handler() { int exec() { push(load(pop()+arg)); return afterArg; } };
+        case SVMParser.LOADFPWOFF :
+          return new Handler() { int exec() { push(load(fp+arg)); return afterArg; } };
+        case SVMParser.INCHP :
+          return new Handler() { int exec() { hp++; return next; } };
+        case SVMParser.DUP :
+          return new Handler() { int exec() { tm=stack[sp]; push(tm); return next; } };
+        case SVMParser.ALLOC :
+          return new Handler() { int exec() { alloc(); return next; } };
+        case SVMParser.JUMP :
+          return new Handler() { int exec() { return pop(); } };
+        case SVMParser.LOADMETHOD :
+          return new Handler() { int exec() { push(method(pop(), address)); return afterArg; } };
+        case SVMParser.POPN :
+          return new Handler() { int exec() { sp += arg; if (sp > stack.length) throw underflow(sp); return afterArg; } };
+        case SVMParser.RETURN :
+          return new Handler() { int exec() { ret(arg); return ip; } };
+        case SVMParser.LOADDISPLAY :
+          return new Handler() { int exec() { push(display[arg]); return afterArg; } };
+        case SVMParser.ENTER :
+          return new Handler() { int exec() { enter(arg, fp); return afterArg; } };
+        case SVMParser.LEAVE :
+          return new Handler() { int exec() { leave(arg); return afterArg; } };
+        default: // like ExecuteVM, unknown words are skipped
+          return new Handler() { int exec() { return next; } };
+      }
+    }
+
+}
@@ -0,0 +1,25 @@
+package svm;
+
+// a failure of an instruction (e.g. a division by zero), located in the FOOL source by a LineTable
+public class VMException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public final int address; // of the instruction
+	public final int line; // -1 if not known
+	public final String function; // null if not known
+
+	public VMException(RuntimeException cause, int address, LineTable lines) {
+		super(describe(cause, address, lines), cause);
+		this.address = address;
+		this.line = lines.line(address);
+		this.function = lines.function(address);
+	}
+
+	private static String describe(RuntimeException cause, int address, LineTable lines) {
+		String where = lines.describe(address);
+		return (where == null ? "" : where.substring(0, 1).toUpperCase()+where.substring(1)+", ")
+			+"address "+address+": "+cause;
+	}
+
+}
@@ -0,0 +1,27 @@
+package svm;
+
+/**
+ * Execution engine for the bytecode produced by SVMParser or BytecodeEmitter.
+ */
+public interface VirtualMachine {
+
+    void cpu();
+
+    // engine selected by name: "threaded" for ThreadedVM, "tagged" for TaggedVM,
+    // "jit" for JitVM, "tos" for ExecuteVM caching the top of the stack,
+    // otherwise ExecuteVM
+    static VirtualMachine of(String engine, int[] code) {
+      if ("threaded".equals(engine)) return new ThreadedVM(code);
+      if ("jit".equals(engine)) return new JitVM(code);
+      if ("tagged".equals(engine)) return new TaggedVM(code);
+      return new ExecuteVM(code, "tos".equals(engine));
+    }
+
+    // engine selected by name, reporting the FOOL line of a failure from lines (see ExecuteVM.setLines)
+    static VirtualMachine of(String engine, int[] code, LineTable lines) {
+      VirtualMachine vm = of(engine, code);
+      ((ExecuteVM) vm).setLines(lines);
+      return vm;
+    }
+
+}